@@ -0,0 +1,124 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+
+
+/**
+ * SensEH Project
+ *
+ * 'ArrayTrace' is an environmental trace parsed once from a delimited text file
+ *   into a primitive array, so that reading a sample is an array index.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class ArrayTrace extends EnvironmentalTrace {
+
+    private final String traceFile;
+    private final double[] values;
+
+
+    public ArrayTrace(String traceFile, double[] values) {
+        this.traceFile = traceFile;
+        this.values = values;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int i) {
+        return values[i];
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    @Override
+    long getSizeInBytes() {
+        return 8L * values.length;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Reads the tokenNo-th (from 1) column of every non-empty line of the file.
+     * @param delimiter a regular expression as for String.split()
+     */
+    public static ArrayTrace parse(String traceFile, String delimiter, int tokenNo) {
+        BufferedReader traceRdr = null;
+        try {
+            traceRdr = new BufferedReader(new FileReader(traceFile));
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            System.err.println("Enviornmental data trace file " + traceFile +  " not found ... Exiting.... ");
+            System.exit(-1);
+        }
+        return parse(traceFile, traceRdr, delimiter, tokenNo);
+    }
+
+    /**
+     * As parse() above, from the content of the file already read, e.g. by TraceCache.
+     */
+    public static ArrayTrace parse(String traceFile, BufferedReader traceRdr, String delimiter, int tokenNo) {
+        // A one-character delimiter, the common case, is cut without the regular expression engine
+        char delimiterChar = 0;
+        if (delimiter.length() == 1 && ".$|()[{^?*+\\".indexOf(delimiter.charAt(0)) < 0)
+            delimiterChar = delimiter.charAt(0);
+
+        double[] values = new double[1024];
+        int n = 0;
+        String line = null;
+        try {
+            while ((line = traceRdr.readLine()) != null) {
+                if (line.length() == 0)
+                    continue;
+                String token = (delimiterChar != 0)?
+                        token(line, delimiterChar, tokenNo) : line.split(delimiter)[tokenNo-1];
+                if (n == values.length) {
+                    double[] grown = new double[values.length * 2];
+                    System.arraycopy(values, 0, grown, 0, n);
+                    values = grown;
+                }
+                values[n++] = Double.parseDouble(token);
+            }
+            traceRdr.close();
+        } catch (NumberFormatException e) {
+            e.printStackTrace();
+            System.err.println ("Could not parse environmental value '" + line + "' in " + traceFile + "... Exiting...");
+            System.exit(-1);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println ("No column " + tokenNo + " in '" + line + "' of " + traceFile + "... Exiting...");
+            System.exit(-1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println ("Could not read from trace file "+  traceFile +" ... Exiting...");
+            System.exit(-1);
+        }
+
+        if (n == 0) {
+            System.err.println ("Enviornmental data trace file " + traceFile + " is empty ... Exiting...");
+            System.exit(-1);
+        }
+
+        double[] trimmed = new double[n];
+        System.arraycopy(values, 0, trimmed, 0, n);
+        return new ArrayTrace(traceFile, trimmed);
+    }
+
+    static String token(String line, char delimiter, int tokenNo) {
+        int start = 0;
+        for (int t = 1; t < tokenNo; t++) {
+            start = line.indexOf(delimiter, start);
+            if (start < 0)
+                throw new ArrayIndexOutOfBoundsException(tokenNo - 1);
+            start++;
+        }
+        int end = line.indexOf(delimiter, start);
+        return (end < 0)? line.substring(start) : line.substring(start, end);
+    }
+
+}
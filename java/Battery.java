@@ -24,34 +24,68 @@ public class Battery extends EnergyStorage {
     private double CAPACITY;
 
     private double maxEnergy;  //mJ
-    private double energy;  //mJ
+    // The energy (mJ) of each battery lives in energyStore[slot], an array of its own,
+    //  or a slot of the arrays of HarvestBatch when the battery is a view of it.
+    private double[] energyStore = new double[1];
+    private int slot = 0;
+    private volatile double voltage = Double.NaN;  // of the energy, NaN once the energy changed
 
     private LookupTable chargeVoltageLUT;
+    private final int[] hint = new int[1];  // of the last segment of this battery, the table is shared
     private double NOMINAL_VOLTAGE;
     private double MIN_OPERATING_VOLTAGE;
+    private double depletionEnergy;  // mJ, at MIN_OPERATING_VOLTAGE, NaN if the voltage does not rise with the charge
+    private double RESUME_VOLTAGE;
+    private double resumeEnergy;     // mJ, at RESUME_VOLTAGE, likewise
 
 
     public Battery(String name, String chargeVoltageLookupTableFile,
             double capacity, double nominalVoltage, double minVoltage) {
         this.name = name;
-        chargeVoltageLUT = new LookupTable(name, chargeVoltageLookupTableFile);
+        chargeVoltageLUT = LookupTableRegistry.getLookupTable(name, chargeVoltageLookupTableFile);
         numBatteries = 1;
         CAPACITY = capacity;  // mAh
         NOMINAL_VOLTAGE = nominalVoltage;
-        energy = maxEnergy = CAPACITY * 3600 * NOMINAL_VOLTAGE;  // mA·h x 3600 x V --> mW·s (mJ)
+        energyStore[slot] = maxEnergy = CAPACITY * 3600 * NOMINAL_VOLTAGE;  // mA·h x 3600 x V --> mW·s (mJ)
         MIN_OPERATING_VOLTAGE = minVoltage;
+        depletionEnergy = chargeVoltageLUT.getX(MIN_OPERATING_VOLTAGE) * NOMINAL_VOLTAGE * 3600;
+        setResumeVoltage(MIN_OPERATING_VOLTAGE);
+    }
 
-        System.out.println(name + " Battery is intialized with:" +
-                "\nCharge: "         + CAPACITY + " mAh" +
-                "\nVoltage: "        + getVoltage(energy) + " V" +
-                "\nNominalVoltage: " + NOMINAL_VOLTAGE + " V" +
-                "\nEnergy: "         + energy + " mJ");
+    /**
+     * Sets the voltage above which a depleted battery is refilled, for a hysteresis.
+     */
+    public void setResumeVoltage(double resumeVoltage){
+        RESUME_VOLTAGE = Math.max(resumeVoltage, MIN_OPERATING_VOLTAGE);
+        resumeEnergy = chargeVoltageLUT.getX(RESUME_VOLTAGE) * NOMINAL_VOLTAGE * 3600;
     }
 
     public void setNumBatteries(int numBatteries){
         this.numBatteries = numBatteries;
     }
 
+    /**
+     * Moves the energy into store[slot], which holds it from now on.
+     */
+    void bindEnergy(double[] store, int slot){
+        store[slot] = energyStore[this.slot];
+        this.energyStore = store;
+        this.slot = slot;
+        invalidateVoltage();
+    }
+
+    /**
+     * To be called whenever the energy changes, e.g. by HarvestBatch through the view.
+     */
+    void invalidateVoltage(){
+        voltage = Double.NaN;
+    }
+
+    @Override
+    double getMaxEnergy(){
+        return maxEnergy;
+    }
+
     @Override
     public int getNumStorages(){
         return numBatteries;
@@ -71,21 +105,30 @@ public class Battery extends EnergyStorage {
      */
     @Override
     double getVoltage() {
-        return getVoltage(energy);
+        double v = voltage;  // A volatile read, without the lookup, as long as the energy is the same
+        if (v != v) {  // NaN
+            double energy = energyStore[slot];
+            v = getVoltage(energy);
+            voltage = v;
+            if (energyStore[slot] != energy)  // Changed meanwhile, e.g. read from the GUI
+                voltage = Double.NaN;
+        }
+        return v;
     }
 
+    @Override
     double getVoltage (double energy_mj){
         double chrg = getCharge(energy_mj);
-        return chargeVoltageLUT.getY(chrg);
+        return chargeVoltageLUT.getY(chrg, LookupTable.OutOfRange.EXTRAPOLATE, hint, 0);
     }
 
     @Override
     public double getEnergy() { // return in mJ
-        return energy;
+        return energyStore[slot];
     }
 
     public double getCharge() {
-        return getCharge(energy);
+        return getCharge(energyStore[slot]);
     }
 
     private double getCharge(double energy_mj) { // Returns the charge in mAh
@@ -102,10 +145,12 @@ public class Battery extends EnergyStorage {
      */
     @Override
     void charge(double energy_mj) {
-        energy += (energy_mj / numBatteries); // Drain an equally divided energy from every battery
+        double energy = energyStore[slot] + (energy_mj / numBatteries); // Charge every battery equally
         if (energy > maxEnergy) {
             energy = maxEnergy;
         }
+        energyStore[slot] = energy;
+        voltage = Double.NaN;
     }
 
     /*
@@ -113,13 +158,91 @@ public class Battery extends EnergyStorage {
      */
     @Override
     void discharge(double energy_mj) {
-        energy -= (energy_mj / numBatteries); // Drain an equally divided energy from every battery
+        double energy = energyStore[slot] - (energy_mj / numBatteries); // Drain an equally divided energy from every battery
         if (energy < 0) {
             energy = 0;
         }
+        energyStore[slot] = energy;
+        voltage = Double.NaN;
+    }
+
+    /**
+     * With the hysteresis: once depleted, a battery stays so up to the resume voltage.
+     */
+    @Override
+    public boolean isDepleted(boolean wasDepleted) {
+        if (!wasDepleted)
+            return isDepleted();
+        if (!Double.isNaN(resumeEnergy))
+            return energyStore[slot] <= resumeEnergy;
+        return getVoltage() <= RESUME_VOLTAGE;
+    }
+
+    /**
+     * Charges and then discharges as ever, and then leaks over the interval, if leaking,
+     *  so a full battery ends the interval short of full by what it discharged and leaked.
+     */
+    @Override
+    void update(double charged_mj, double discharged_mj, double interval) {
+        super.update(charged_mj, discharged_mj, interval);
+        if (leakage != null) {
+            energyStore[slot] = integrateLeaking(energyStore[slot], 0, leakage.getRate(), interval);
+            voltage = Double.NaN;
+        }
+    }
+
+    /**
+     * If leaking, interval by interval as update(), up to when the energy stays the same
+     *  from one interval to the next, e.g. full or drained, and so up to the end of the run.
+     */
+    @Override
+    void updateRun(double charged_mj, double discharged_mj, double interval, int intervals) {
+        if (leakage == null) {
+            super.updateRun(charged_mj, discharged_mj, interval, intervals);
+            return;
+        }
+        for (int i = 0; i < intervals; i++) {
+            double energy = energyStore[slot];
+            update(charged_mj, discharged_mj, interval);
+            if (energyStore[slot] == energy)
+                break;
+        }
+    }
+
+    @Override
+    double getTimeToCrossing(boolean depleted, double charged_mj, double discharged_mj, double interval) {
+        double netPower = (charged_mj - discharged_mj) / numBatteries / interval;  // mW, per battery
+        return getTimeToReachLeaking(energyStore[slot], depleted? resumeEnergy : depletionEnergy,
+                                     netPower, (leakage != null)? leakage.getRate() : 0);
+    }
+
+    // The energy of a battery is its charge at the nominal voltage
+    @Override
+    double getEnergyAt(double voltage) {
+        return chargeVoltageLUT.getX(voltage) * NOMINAL_VOLTAGE * 3600;
+    }
+
+    @Override
+    double getChargeVoltage(double energy_mj) {
+        return NOMINAL_VOLTAGE;
+    }
+
+    @Override
+    double[] getEnergyKnots() {
+        double[] knots = new double[chargeVoltageLUT.getNumPoints()];
+        for (int i = 0; i < knots.length; i++)
+            knots[i] = chargeVoltageLUT.getPointX(i) * NOMINAL_VOLTAGE * 3600;
+        return knots;
+    }
+
+    @Override
+    boolean isFull() {
+        return energyStore[slot] >= maxEnergy;
     }
 
     public boolean isDepleted() { // 'true' if the voltage is less than the minimum operating voltage.
+        if (!Double.isNaN(depletionEnergy))  // The same, without looking the voltage up
+            return energyStore[slot] <= depletionEnergy;
         if (getVoltage() <= MIN_OPERATING_VOLTAGE) {
             return true;
         }
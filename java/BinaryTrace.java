@@ -0,0 +1,222 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ * SensEH Project
+ *
+ * 'BinaryTrace' reads and writes the binary columnar trace format (.bin),
+ *   which can be memory-mapped instead of being parsed line by line.
+ *
+ * Layout, all little-endian:
+ *   "SEHT", version (int32), sample interval in seconds (float64),
+ *   start timestamp in ms since the epoch or Long.MIN_VALUE if unknown (int64),
+ *   number of columns (int32), number of rows (int32),
+ *   per column: name and unit (int16 length + UTF-8 bytes each), bytes per value (int8, 8 or 4),
+ *   zero padding up to a multiple of 8 bytes,
+ *   then every column, packed, one after the other as float64 or float32.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class BinaryTrace {
+
+    public static final String EXTENSION = ".bin";
+    public static final long   NO_TIMESTAMP = Long.MIN_VALUE;
+
+    private static final byte[]  MAGIC = {'S', 'E', 'H', 'T'};
+    private static final int     VERSION = 1;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public static class Column {
+        public final String name;
+        public final String unit;
+        public final int bytesPerValue;  // 8 for float64, 4 for float32
+        long offset;                     // of the data in the file
+
+        public Column(String name, String unit, int bytesPerValue) {
+            if (bytesPerValue != 8 && bytesPerValue != 4)
+                throw new IllegalArgumentException("Column " + name + ": only float64 and float32 are supported");
+            this.name = name;
+            this.unit = unit;
+            this.bytesPerValue = bytesPerValue;
+        }
+    }
+
+    public static class Header {
+        public final double sampleInterval;
+        public final long startTimestamp;
+        public final int rows;
+        public final Column[] columns;
+
+        public Header(double sampleInterval, long startTimestamp, int rows, Column[] columns) {
+            this.sampleInterval = sampleInterval;
+            this.startTimestamp = startTimestamp;
+            this.rows = rows;
+            this.columns = columns;
+        }
+
+        public Column getColumn(String name) {
+            for (Column column : columns)
+                if (column.name.equals(name))
+                    return column;
+            return null;
+        }
+    }
+
+
+    private BinaryTrace() {
+    }
+
+    // --------------------------------------------------------------------------
+    public static void write(File file, Header header, double[][] data) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            ByteBuffer head = ByteBuffer.allocate(headerSize(header)).order(ByteOrder.LITTLE_ENDIAN);
+            head.put(MAGIC);
+            head.putInt(VERSION);
+            head.putDouble(header.sampleInterval);
+            head.putLong(header.startTimestamp);
+            head.putInt(header.columns.length);
+            head.putInt(header.rows);
+            for (Column column : header.columns) {
+                putString(head, column.name);
+                putString(head, column.unit);
+                head.put((byte) column.bytesPerValue);
+            }
+            out.write(head.array());  // Padding is already zero
+
+            ByteBuffer chunk = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            for (int c = 0; c < header.columns.length; c++) {
+                if (data[c].length != header.rows)
+                    throw new IllegalArgumentException("Column " + header.columns[c].name + " has "
+                            + data[c].length + " rows, not " + header.rows);
+                for (int i = 0; i < header.rows; i++) {
+                    if (chunk.remaining() < 8) {
+                        out.write(chunk.array(), 0, chunk.position());
+                        chunk.clear();
+                    }
+                    if (header.columns[c].bytesPerValue == 8)
+                        chunk.putDouble(data[c][i]);
+                    else
+                        chunk.putFloat((float) data[c][i]);
+                }
+            }
+            out.write(chunk.array(), 0, chunk.position());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int headerSize(Header header) {
+        int size = MAGIC.length + 4 + 8 + 8 + 4 + 4;
+        for (Column column : header.columns)
+            size += 2 + column.name.getBytes(UTF8).length + 2 + column.unit.getBytes(UTF8).length + 1;
+        return (size + 7) & ~7;
+    }
+
+    private static void putString(ByteBuffer buffer, String s) {
+        byte[] bytes = s.getBytes(UTF8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xffff];
+        buffer.get(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    // --------------------------------------------------------------------------
+    public static Header readHeader(FileChannel channel) throws IOException {
+        int size = (int) Math.min(channel.size(), 1 << 16);
+        ByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+
+        double sampleInterval;
+        long startTimestamp;
+        Column[] columns;
+        int rows;
+        try {
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            for (int i = 0; i < MAGIC.length; i++)
+                if (magic[i] != MAGIC[i])
+                    throw new IOException("Not a binary trace");
+            int version = head.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported binary trace version " + version);
+
+            sampleInterval = head.getDouble();
+            startTimestamp = head.getLong();
+            int numColumns = head.getInt();
+            rows = head.getInt();
+            if (numColumns < 0 || rows < 0)
+                throw new IOException("Binary trace header is corrupt");
+            columns = new Column[numColumns];
+            for (int c = 0; c < columns.length; c++)
+                columns[c] = new Column(getString(head), getString(head), head.get());
+
+        } catch (BufferUnderflowException e) {  // The header runs past the end of the file
+            throw new IOException("Binary trace is truncated");
+        }
+
+        long offset = (head.position() + 7) & ~7;
+        for (Column column : columns) {
+            column.offset = offset;
+            offset += (long) rows * column.bytesPerValue;
+        }
+        if (offset > channel.size())
+            throw new IOException("Binary trace is truncated");
+
+        return new Header(sampleInterval, startTimestamp, rows, columns);
+    }
+
+    /**
+     * Maps one column of the binary trace file.
+     * Nothing stays open, the mapping outlives the channel.
+     */
+    public static MappedTrace map(String traceFile, String columnName) {
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(traceFile, "r");
+            FileChannel channel = raf.getChannel();
+            Header header = readHeader(channel);
+            Column column = header.getColumn(columnName);
+            if (column == null) {
+                System.err.println("No column '" + columnName + "' in binary trace file " + traceFile + " ... Exiting...");
+                System.exit(-1);
+            }
+            if (header.rows == 0) {
+                System.err.println("Binary trace file " + traceFile + " is empty ... Exiting...");
+                System.exit(-1);
+            }
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY,
+                    column.offset, (long) header.rows * column.bytesPerValue);
+            return new MappedTrace(traceFile, header, column, data);
+
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Could not map binary trace file " + traceFile + " ... Exiting...");
+            System.exit(-1);
+            return null;
+        } finally {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+}
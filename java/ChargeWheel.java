@@ -0,0 +1,204 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import se.sics.cooja.Simulation;
+import se.sics.cooja.TimeEvent;
+
+
+/**
+ * SensEH Project
+ *
+ * 'ChargeWheel' schedules the charge updates of the nodes, each on its own schedule,
+ *   e.g. with its own sample interval, or phase-staggered to spread the updates over time,
+ *   with a single Cooja TimeEvent active at a time.
+ *
+ * Updates wait in a hashed timing wheel: a ring of buckets, each TICK long,
+ *   where an update is in the bucket of its due time, modulo the length of the ring.
+ * Updates due beyond one round of the ring, e.g. over a long adaptive or fast-forward stride,
+ *   wait in an overflow queue by due time instead, and move into the ring as it comes round to them.
+ * The event is scheduled at the earliest due time, found by walking the buckets from the current one,
+ *   and runs every update due by then, by due time and then by the order they were added in,
+ *   e.g. all the nodes in order when they are in lockstep.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class ChargeWheel {
+
+    /**
+     * An update, e.g. of a node, or of a HarvestBatch.
+     */
+    public static abstract class Entry {
+        private long due;   // us
+        private int order;  // of addition
+        private Entry next; // in the bucket
+
+        /**
+         * Updates, at its due time.
+         * @return the next due time (us), or a negative one to be dropped
+         */
+        protected abstract long update(long now);
+    }
+
+    private static final int SLOTS = 512;  // power of two
+    private static final Comparator<Entry> BY_DUE_ORDER = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            if (a.due != b.due)
+                return (a.due < b.due)? -1 : 1;
+            return (a.order < b.order)? -1 : ((a.order == b.order)? 0 : 1);
+        }
+    };
+
+    private final Simulation simulation;
+    private final long tick;  // us
+    private final Entry[] buckets = new Entry[SLOTS];
+    private final PriorityQueue<Entry> overflow = new PriorityQueue<Entry>(16, BY_DUE_ORDER);
+    private int size = 0;     // in the ring and in the overflow
+    private int added = 0;
+    private long cursor;      // tick of the earliest bucket that may hold a due update
+
+    private final List<Entry> due = new ArrayList<Entry>();
+    private long totalEvents = 0;
+    private long totalUpdates = 0;
+
+    private final TimeEvent event = new TimeEvent(0, "charge wheel event") {
+        @Override
+        public void execute(long t) {
+            runDue(t);
+            schedule();
+        }
+    };
+
+
+    /**
+     * @param tick us, the width of a bucket, e.g. a fraction of the shortest interval
+     */
+    public ChargeWheel(Simulation simulation, long tick) {
+        this.simulation = simulation;
+        this.tick = Math.max(tick, 1);
+        this.cursor = simulation.getSimulationTime() / this.tick;
+    }
+
+    /**
+     * Adds an update due at the given time, to be scheduled by start().
+     */
+    public void add(Entry entry, long due) {
+        entry.due = due;
+        entry.order = added++;
+        insert(entry);
+    }
+
+    public void start() {
+        schedule();
+    }
+
+    public void stop() {
+        if (event.isScheduled())
+            event.remove();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTotalEvents() {
+        return totalEvents;
+    }
+
+    public long getTotalUpdates() {
+        return totalUpdates;
+    }
+
+    // --------------------------------------------------------------------------
+    private void insert(Entry entry) {
+        if (entry.due / tick >= cursor + SLOTS) {  // Beyond this round
+            overflow.add(entry);
+            size++;
+            return;
+        }
+        int slot = (int) (entry.due / tick) & (SLOTS - 1);
+        entry.next = buckets[slot];
+        buckets[slot] = entry;
+        size++;
+        if (entry.due / tick < cursor)
+            cursor = entry.due / tick;
+    }
+
+    private void schedule() {
+        long next = nextDue();
+        if (next >= 0)
+            simulation.scheduleEvent(event, Math.max(next, simulation.getSimulationTime()));
+    }
+
+    // The earliest due time, -1 if none
+    private long nextDue() {
+        if (size == 0)
+            return -1;
+        while (true) {
+            // Into the ring, what of the overflow is now due within this round
+            while (!overflow.isEmpty() && overflow.peek().due / tick < cursor + SLOTS) {
+                size--;
+                insert(overflow.poll());
+            }
+            for (long t = cursor; t < cursor + SLOTS; t++) {  // One round of the wheel
+                long earliest = Long.MAX_VALUE;
+                for (Entry e = buckets[(int) t & (SLOTS - 1)]; e != null; e = e.next)
+                    if (e.due / tick == t && e.due < earliest)
+                        earliest = e.due;
+                if (earliest != Long.MAX_VALUE) {
+                    cursor = t;
+                    return earliest;
+                }
+            }
+            // Nothing in this round: on to the earliest of the later ones, mostly in the overflow
+            long earliest = overflow.isEmpty()? Long.MAX_VALUE : overflow.peek().due;
+            if (size > overflow.size())  // In the ring beyond this round, after an update added early
+                for (Entry bucket : buckets)
+                    for (Entry e = bucket; e != null; e = e.next)
+                        earliest = Math.min(earliest, e.due);
+            cursor = earliest / tick;
+        }
+    }
+
+    private void runDue(long now) {
+        // Take the updates due by now out of the buckets from the cursor on
+        long last = now / tick;
+        for (long t = cursor; t <= last && t < cursor + SLOTS; t++) {
+            int slot = (int) t & (SLOTS - 1);
+            Entry prev = null;
+            for (Entry e = buckets[slot]; e != null; ) {
+                Entry next = e.next;
+                if (e.due <= now) {
+                    if (prev == null)
+                        buckets[slot] = next;
+                    else
+                        prev.next = next;
+                    size--;
+                    due.add(e);
+                } else {
+                    prev = e;
+                }
+                e = next;
+            }
+        }
+        cursor = last;
+
+        Collections.sort(due, BY_DUE_ORDER);
+        totalEvents++;
+        for (int i = 0; i < due.size(); i++) {
+            Entry e = due.get(i);
+            long next = e.update(now);
+            totalUpdates++;
+            if (next >= 0) {
+                e.due = Math.max(next, now + 1);
+                insert(e);
+            }
+        }
+        due.clear();
+    }
+
+}
@@ -0,0 +1,224 @@
+import java.io.BufferedOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.BitSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SensEH Project
+ *
+ * 'DiagnosticSink' receives the diagnostic records of the nodes, e.g. what a node harvested
+ *   on an interval, and writes them out on a background thread, one line per record:
+ *   <time ms> <LEVEL> node=<n> <event> <fields>, where <n> is the node number, i.e. index + 1.
+ *
+ * A record is kept only if its level is enabled and its node is selected, see configure().
+ * Callers check isEnabled() first, so a disabled record costs neither formatting nor allocation.
+ * An enabled record keeps its format, a constant, and its values, and is formatted on the writer thread;
+ *   anything else, e.g. a name, goes into its event, which is written as is.
+ * The queue of records is bounded: when the writer falls behind, records are dropped, and counted,
+ *   instead of slowing the simulation down; so are the records coming after the sink is closed.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class DiagnosticSink {
+
+    public enum Level {
+        OFF, ERROR, INFO, DEBUG
+    }
+
+    private static volatile int threshold = Level.INFO.ordinal();
+    private static volatile BitSet nodes = null;  // node indexes, null for all
+
+    private static volatile BlockingQueue<Record> queue;  // null when closed
+    private static Thread writer;
+    private static PrintStream out = System.out;
+
+    private static final AtomicLong recorded = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    private static final Record STOP = new Record(Level.OFF, 0, 0, null, null, 0, 0, 0, 0);
+
+
+    private DiagnosticSink() {
+    }
+
+    /**
+     * Starts the sink, writing to System.out, or to file if not null.
+     * @param nodes the indexes of the selected nodes, null for all of them
+     * @param capacity of the queue, in records
+     */
+    public static synchronized void configure(Level level, BitSet nodes, String file, int capacity) {
+        close();
+        threshold = level.ordinal();
+        DiagnosticSink.nodes = nodes;
+        recorded.set(0);
+        dropped.set(0);
+        if (level == Level.OFF)
+            return;
+
+        out = System.out;
+        if (file != null) {
+            try {
+                out = new PrintStream(new BufferedOutputStream(new FileOutputStream(file)), false);
+            } catch (FileNotFoundException e) {
+                System.err.println("Diagnostics file " + file + " could not be written.. Exiting...");
+                System.exit(-1);
+            }
+        }
+
+        final BlockingQueue<Record> records = new ArrayBlockingQueue<Record>(Math.max(capacity, 1));
+        final PrintStream stream = out;
+        queue = records;
+        writer = new Thread("SensEH diagnostics") {
+            @Override
+            public void run() {
+                write(records, stream);
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes out the queued records, and stops the sink.
+     */
+    public static synchronized void close() {
+        threshold = Level.OFF.ordinal();
+        if (writer == null)
+            return;
+        BlockingQueue<Record> records = queue;
+        queue = null;  // Records from now on are dropped
+        try {
+            records.put(STOP);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Queued behind STOP by a record() that raced with closing
+        dropped.addAndGet(records.size());
+        records.clear();
+        if (out != System.out)
+            out.close();
+        writer = null;
+    }
+
+    public static boolean isEnabled(Level level, int nodeID) {
+        if (level.ordinal() > threshold)
+            return false;
+        BitSet selected = nodes;
+        return selected == null || selected.get(nodeID);
+    }
+
+    /**
+     * Queues a record, formatted later as String.format(format, a, b, c).
+     * @param event as is, e.g. with the name of what it is about
+     * @param format of the fields, a constant with three numbers
+     */
+    public static void record(Level level, int nodeID, long timeMillis, String event, String format,
+                              double a, double b, double c) {
+        offer(new Record(level, nodeID, timeMillis, event, format, 3, a, b, c));
+    }
+
+    /**
+     * As record() above, with two numbers.
+     */
+    public static void record(Level level, int nodeID, long timeMillis, String event, String format,
+                              double a, double b) {
+        offer(new Record(level, nodeID, timeMillis, event, format, 2, a, b, 0));
+    }
+
+    /**
+     * As record() above, with one number.
+     */
+    public static void record(Level level, int nodeID, long timeMillis, String event, String format,
+                              double a) {
+        offer(new Record(level, nodeID, timeMillis, event, format, 1, a, 0, 0));
+    }
+
+    public static void record(Level level, int nodeID, long timeMillis, String event) {
+        offer(new Record(level, nodeID, timeMillis, event, null, 0, 0, 0, 0));
+    }
+
+    private static void offer(Record record) {
+        BlockingQueue<Record> records = queue;
+        if (records == null)
+            dropped.incrementAndGet();  // Closed
+        else if (records.offer(record))
+            recorded.incrementAndGet();
+        else
+            dropped.incrementAndGet();
+    }
+
+    public static long getRecorded() {
+        return recorded.get();
+    }
+
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    // --------------------------------------------------------------------------
+    // On the writer thread
+    private static void write(BlockingQueue<Record> records, PrintStream stream) {
+        StringBuilder line = new StringBuilder(128);
+        try {
+            while (true) {
+                Record record = records.take();
+                if (record == STOP)
+                    break;
+                line.setLength(0);
+                record.appendTo(line);
+                stream.println(line);
+                if (records.isEmpty())
+                    stream.flush();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stream.flush();
+    }
+
+    private static class Record {
+
+        final Level level;
+        final int nodeID;
+        final long timeMillis;
+        final String event;
+        final String format;  // null for no fields
+        final int numValues;
+        final double a, b, c;
+
+        Record(Level level, int nodeID, long timeMillis, String event, String format,
+               int numValues, double a, double b, double c) {
+            this.level = level;
+            this.nodeID = nodeID;
+            this.timeMillis = timeMillis;
+            this.event = event;
+            this.format = format;
+            this.numValues = numValues;
+            this.a = a;
+            this.b = b;
+            this.c = c;
+        }
+
+        void appendTo(StringBuilder sb) {
+            sb.append(timeMillis).append(' ').append(level).append(" node=").append(nodeID + 1)
+              .append(' ').append(event);
+            if (format == null)
+                return;
+            sb.append(' ');
+            if (numValues == 1)
+                sb.append(String.format(format, a));
+            else if (numValues == 2)
+                sb.append(String.format(format, a, b));
+            else
+                sb.append(String.format(format, a, b, c));
+        }
+    }
+
+}
@@ -0,0 +1,920 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import se.sics.cooja.GUI;
+
+
+/**
+ * SensEH Project
+ *
+ * 'EHConfig' is the energy harvesting system configuration, e.g. EH.config,
+ *   loaded and validated once per plugin instance and shared by all the nodes.
+ *
+ * A node may override any property with 'node.<n>.<property>',
+ *   where <n> is the node number, i.e. index + 1, whatever trace file it reads.
+ * E.g. 'node.17.storage.num=3'.
+ * forNode() returns the shared configuration itself for a node without overrides,
+ *   otherwise a view that holds only the overrides on top of the shared one.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class EHConfig {
+
+    private static final Pattern NODE_PROPERTY = Pattern.compile("node\\.(\\d+)\\.(.+)");
+
+    private final String configFilePath;
+    private final EHConfig base;                            // null for the shared configuration
+    private final Properties properties;                    // the overrides only, in a view
+    private final Map<Integer, Properties> nodeOverrides;   // by node number, in the shared one only
+
+    // Energy source
+    private final String sourceType;
+    private final String sourceName;
+    private final String sourceLookupTable;
+    private final int    sourceNum;
+
+    // Environmental data for the energy source
+    private final boolean environmentSynthetic;  // generated by SyntheticDataProvider instead of traces
+    private final boolean environmentSolar;      // from the position of the sun, see SolarDataProvider
+    private final boolean environmentField;      // at the position of the mote, see IrradianceField
+    private final String traceFilePath;
+    private final double sampleInterval;  // in seconds, defines how frequently charge should be updated
+    private final boolean traceBinary;    // BinaryTrace files instead of text
+    private final String traceDelimiter;
+    private final int    traceColumnNo;
+    private final String traceColumnName; // of a binary trace
+
+    // Streamed text traces, 0 for loading the traces instead
+    private final int     tracePrefetchCapacity;  // samples per node
+    private final int     tracePrefetchThreads;
+    private final RunLengthTrace.Encoding traceEncoding;  // of loaded text traces
+
+    // Timestamped traces
+    private final boolean traceTimed;
+    private final String  traceDateTimeFormat;
+    private final int     traceDateColumnNo;
+    private final int     traceTimeColumnNo;
+    private final TimedTrace.Interpolation traceInterpolation;
+    private final double  traceStart;   // s into the trace
+    private final double  traceMaxGap;  // s
+    private final int    traceFileCount;  // 0 for a trace file per node
+
+    // Synthetic environment, see SyntheticDataProvider
+    private final long   syntheticSeed;
+    private final double syntheticPeakLux;
+    private final double syntheticSunrise;  // h
+    private final double syntheticSunset;   // h
+    private final double syntheticClearDuration;   // s
+    private final double syntheticCloudyDuration;  // s
+    private final double syntheticCloudFactor;
+    private final double syntheticJitter;
+
+    // Clear-sky light, see SolarGeometry
+    private final double solarLatitude;   // deg, north
+    private final double solarLongitude;  // deg, east
+    private final double solarEpoch;      // s, UTC since 1970-01-01, of the local midnight of the date
+    private final double solarEfficacy;   // lm/W
+    private final double solarAttenuation;
+
+    // Light field, see IrradianceField
+    private final double[][] fieldStations;  // [station][x, y, z], of the traces <path>/<station + 1>.txt
+    private final int        fieldNeighbours;
+    private final double     fieldPower;
+
+    // Harvester
+    private final String harvesterName;
+    private final String harvesterLookupTable;
+
+    // Energy storage
+    private final String storageType;
+    private final String storageName;
+    private final String storageLookupTable;
+    private final int    storageNum;
+    private final String storageLeakage;             // none, constant, percent or lookuptable
+    private final double storageLeakageCurrent;      // mA
+    private final double storageLeakagePercent;      // % per day
+    private final String storageLeakageLookupTable;  // of V and mA
+    private final boolean storageBrownout;           // halts the mote while depleted
+
+    // Battery
+    private final double batteryCapacity;
+    private final double batteryNominalVoltage;
+    private final double batteryMinOperatingVoltage;
+    private final double batteryResumeVoltage;   // V, above which a depleted battery is refilled
+
+    // Supercapacitor
+    private final double capacitorCapacitance;          // F
+    private final double capacitorMaxVoltage;           // V
+    private final double capacitorMinOperatingVoltage;  // V
+    private final double capacitorResumeVoltage;        // V
+    private final double capacitorLeakageResistance;    // Ohm, infinite for none
+    private final double capacitorInitialVoltage;       // V
+
+    // Simulation
+    private final boolean batch;  // all nodes updated together by HarvestBatch, when possible
+    private final int     parallelThreshold;  // nodes, 0 for serial
+    private final int     parallelThreads;
+    private final boolean adaptive;             // charge interval, stretched over the sample interval
+    private final double  adaptiveTolerance;    // relative
+    private final double  adaptiveMaxInterval;  // s
+    private final boolean stagger;              // charge updates, phase-shifted node by node
+    private final boolean fastForward;          // over runs of the same environmental value
+    private final double  fastForwardMaxInterval;  // s
+
+    // Diagnostics, see DiagnosticSink
+    private final DiagnosticSink.Level diagnosticsLevel;
+    private final BitSet  diagnosticsNodes;  // node indexes, null for all
+    private final String  diagnosticsFile;   // null for the standard output
+    private final int     diagnosticsQueue;  // records
+
+
+    /**
+     * Reads the configuration file, replacing "[APPS_DIR]", "[COOJA_DIR]", "[CONTIKI_DIR]" ..
+     *   with real paths.
+     */
+    public static EHConfig load(String configFilePath, GUI gui) {
+        Properties config = new Properties();
+        try {
+            FileInputStream fis = new FileInputStream(configFilePath);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
+            StringBuffer sbuff = new StringBuffer();
+
+            Pattern pattern = Pattern.compile("\\[[a-zA-Z_]+\\]");
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                Matcher matcher = pattern.matcher(line);  // Find
+                if (matcher.find() == true) {
+                    File fi = gui.restorePortablePath(new File(line.split("=")[1]));
+                    line = line.split("=")[0] + "=" + fi.getAbsolutePath();
+                }
+                sbuff.append(line + "\n");
+            }
+
+            reader.close();
+            fis.close();
+
+            config.load(new StringReader(sbuff.toString()));
+
+        } catch (FileNotFoundException e) {
+            System.err.println("Energy Harvesting System Configuration file " + configFilePath
+                             + " could not be read.. Exiting...");
+            System.exit(-1);
+
+        } catch (IOException e) {
+            System.err.println("Energy Harvesting System Configuration file " + configFilePath
+                             + " could not be loaded.. Exiting...");
+            System.exit(-1);
+        }
+
+        return new EHConfig(configFilePath, config);
+    }
+
+    private EHConfig(String configFilePath, Properties config) {
+        this(configFilePath, null, config, collectNodeOverrides(config));
+    }
+
+    private EHConfig(String configFilePath, EHConfig base, Properties properties,
+                     Map<Integer, Properties> nodeOverrides) {
+        this.configFilePath = configFilePath;
+        this.base = base;
+        this.properties = properties;
+        this.nodeOverrides = nodeOverrides;
+
+        sourceType        = getRequired("source.type");
+        sourceName        = getRequired("source.name");
+        sourceLookupTable = getRequired("source.outputpower.lookuptable");
+        sourceNum         = getPositiveInt("source.num");
+
+        String environment = getProperty("source.environment.type", "trace");
+        if (!environment.matches("(?i)trace|synthetic|solar|field"))
+            exitInvalid("source.environment.type", environment, "'trace', 'synthetic', 'solar' or 'field'");
+        environmentSynthetic = environment.equalsIgnoreCase("synthetic");
+        environmentSolar     = environment.equalsIgnoreCase("solar");
+        environmentField     = environment.equalsIgnoreCase("field");
+        traceFilePath  = (environmentSynthetic || environmentSolar)?
+                getProperty("source.environment.tracefile.path") : getRequired("source.environment.tracefile.path");
+        sampleInterval = getPositiveDouble("source.environment.sampleinterval");
+        String format  = getProperty("source.environment.tracefile.format", "text");
+        if (!format.equalsIgnoreCase("text") && !format.equalsIgnoreCase("binary"))
+            exitInvalid("source.environment.tracefile.format", format, "'text' or 'binary'");
+        traceBinary    = format.equalsIgnoreCase("binary");
+        if (traceBinary || environmentSynthetic || environmentSolar) {
+            traceDelimiter = null;
+            traceColumnNo  = 0;
+        } else {
+            traceDelimiter = getRequired("source.environment.tracefile.format.delimiter");
+            traceColumnNo  = getPositiveInt("source.environment.tracefile.format.columnno");
+        }
+        traceColumnName = getProperty("source.environment.tracefile.format.columnname", "value");
+
+        tracePrefetchCapacity = getInt("source.environment.tracefile.prefetch", 0);
+        tracePrefetchThreads  = getInt("source.environment.tracefile.prefetch.threads", 1);
+        String encoding = getProperty("source.environment.tracefile.runlength", "off");
+        RunLengthTrace.Encoding traceEncoding = null;
+        for (RunLengthTrace.Encoding e : RunLengthTrace.Encoding.values())
+            if (e.name().equalsIgnoreCase(encoding.trim()))
+                traceEncoding = e;
+        if (traceEncoding == null)
+            exitInvalid("source.environment.tracefile.runlength", encoding, "'off', 'on' or 'auto'");
+        this.traceEncoding = traceEncoding;
+
+        traceTimed          = getBoolean("source.environment.tracefile.timestamps", false);
+        traceDateTimeFormat = getProperty("source.environment.tracefile.format.datetime", "M/d/yyyy H:mm");
+        traceDateColumnNo   = getInt("source.environment.tracefile.format.datecolumnno", 1);
+        traceTimeColumnNo   = getInt("source.environment.tracefile.format.timecolumnno", 2);
+        String interpolation = getProperty("source.environment.interpolation", "linear");
+        if (interpolation.equalsIgnoreCase("linear"))
+            traceInterpolation = TimedTrace.Interpolation.LINEAR;
+        else if (interpolation.equalsIgnoreCase("step"))
+            traceInterpolation = TimedTrace.Interpolation.STEP;
+        else {
+            exitInvalid("source.environment.interpolation", interpolation, "'linear' or 'step'");
+            traceInterpolation = null;
+        }
+        traceStart  = getDouble("source.environment.start", 0);
+        traceMaxGap = getDouble("source.environment.maxgap", Double.POSITIVE_INFINITY);
+        traceFileCount = getInt("source.environment.tracefile.count", 0);
+        if (traceFileCount < 0)
+            exitInvalid("source.environment.tracefile.count", getRequired("source.environment.tracefile.count"),
+                        "a non-negative integer");
+
+        if (environmentSynthetic) {
+            syntheticSeed           = getLong("source.environment.synthetic.seed", 1);
+            syntheticPeakLux        = getDouble("source.environment.synthetic.peaklux", 50000);
+            syntheticSunrise        = getDouble("source.environment.synthetic.sunrise", 6);
+            syntheticSunset         = getDouble("source.environment.synthetic.sunset", 18);
+            syntheticClearDuration  = getDouble("source.environment.synthetic.clear.duration", 3600);
+            syntheticCloudyDuration = getDouble("source.environment.synthetic.cloudy.duration", 1800);
+            syntheticCloudFactor    = getDouble("source.environment.synthetic.cloudy.factor", 0.3);
+            syntheticJitter         = getDouble("source.environment.synthetic.jitter", 0.05);
+            if (syntheticPeakLux < 0)
+                exitInvalid("source.environment.synthetic.peaklux",
+                            getRequired("source.environment.synthetic.peaklux"), "a non-negative number");
+            if (!(0 <= syntheticSunrise && syntheticSunrise < syntheticSunset && syntheticSunset <= 24))
+                exitInvalid("source.environment.synthetic.sunset", String.valueOf(syntheticSunset),
+                            "an hour after source.environment.synthetic.sunrise, within 0-24");
+            if (syntheticClearDuration <= 0)
+                exitInvalid("source.environment.synthetic.clear.duration",
+                            getRequired("source.environment.synthetic.clear.duration"), "a positive number");
+            if (syntheticCloudyDuration <= 0)
+                exitInvalid("source.environment.synthetic.cloudy.duration",
+                            getRequired("source.environment.synthetic.cloudy.duration"), "a positive number");
+            if (syntheticCloudFactor < 0 || syntheticCloudFactor > 1)
+                exitInvalid("source.environment.synthetic.cloudy.factor",
+                            getRequired("source.environment.synthetic.cloudy.factor"), "between 0 and 1");
+            if (syntheticJitter < 0)
+                exitInvalid("source.environment.synthetic.jitter",
+                            getRequired("source.environment.synthetic.jitter"), "a non-negative number");
+        } else {
+            syntheticSeed = 0;
+            syntheticPeakLux = syntheticSunrise = syntheticSunset = 0;
+            syntheticClearDuration = syntheticCloudyDuration = syntheticCloudFactor = syntheticJitter = 0;
+        }
+
+        if (environmentSolar) {
+            getRequired("source.environment.solar.latitude");
+            getRequired("source.environment.solar.longitude");
+            solarLatitude    = getDouble("source.environment.solar.latitude", 0);
+            solarLongitude   = getDouble("source.environment.solar.longitude", 0);
+            String date      = getRequired("source.environment.solar.date");
+            double utcOffset = getDouble("source.environment.solar.utcoffset", 0);
+            double midnight = 0;
+            try {
+                SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+                dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+                dateFormat.setLenient(false);
+                midnight = dateFormat.parse(date.trim()).getTime() / 1000.0;
+            } catch (ParseException e) {
+                exitInvalid("source.environment.solar.date", date, "a date as yyyy-MM-dd");
+            }
+            solarEpoch       = midnight - utcOffset * 3600;
+            solarEfficacy    = getDouble("source.environment.solar.efficacy", 110);
+            solarAttenuation = getDouble("source.environment.solar.attenuation", 1);
+            if (Math.abs(solarLatitude) > 90)
+                exitInvalid("source.environment.solar.latitude",
+                            getRequired("source.environment.solar.latitude"), "within -90 and 90");
+            if (solarEfficacy <= 0)
+                exitInvalid("source.environment.solar.efficacy",
+                            getRequired("source.environment.solar.efficacy"), "a positive number");
+            if (solarAttenuation < 0)
+                exitInvalid("source.environment.solar.attenuation",
+                            getRequired("source.environment.solar.attenuation"), "a non-negative number");
+        } else {
+            solarLatitude = solarLongitude = solarEpoch = solarEfficacy = solarAttenuation = 0;
+        }
+
+        if (environmentField) {
+            fieldStations   = parseStations("source.environment.field.stations",
+                                            getRequired("source.environment.field.stations"));
+            fieldNeighbours = getInt("source.environment.field.neighbours", 3);
+            fieldPower      = getDouble("source.environment.field.power", 2);
+            if (fieldNeighbours <= 0)
+                exitInvalid("source.environment.field.neighbours",
+                            getRequired("source.environment.field.neighbours"), "a positive integer");
+            if (fieldPower <= 0)
+                exitInvalid("source.environment.field.power",
+                            getRequired("source.environment.field.power"), "a positive number");
+            // The stations are loaded traces, each looked up at the sample of every mote
+            if (traceTimed)
+                exitInvalid("source.environment.tracefile.timestamps",
+                            getRequired("source.environment.tracefile.timestamps"),
+                            "false, with source.environment.type=field");
+            if (tracePrefetchCapacity > 0)
+                exitInvalid("source.environment.tracefile.prefetch",
+                            getRequired("source.environment.tracefile.prefetch"),
+                            "0, with source.environment.type=field");
+        } else {
+            fieldStations = null;
+            fieldNeighbours = 0;
+            fieldPower = 0;
+        }
+
+        harvesterName        = getRequired("harvester.name");
+        harvesterLookupTable = getRequired("harvester.efficiency.lookuptable");
+
+        storageType        = getRequired("storage.type");
+        storageName        = getRequired("storage.name");
+        if (!storageType.equalsIgnoreCase("battery") && !storageType.equalsIgnoreCase("capacitor"))
+            exitInvalid("storage.type", storageType, "'battery' or 'capacitor'");
+        storageLookupTable = storageType.equalsIgnoreCase("battery")?
+                getRequired("storage.soc.lookuptable") : getProperty("storage.soc.lookuptable");
+        storageNum         = getPositiveInt("storage.num");
+        storageLeakage     = getProperty("storage.leakage", "none").trim().toLowerCase();
+        storageLeakageCurrent     = storageLeakage.equals("constant")?
+                getPositiveDouble("storage.leakage.current") : 0;
+        storageLeakagePercent     = storageLeakage.equals("percent")?
+                getPositiveDouble("storage.leakage.percentperday") : 0;
+        storageLeakageLookupTable = storageLeakage.equals("lookuptable")?
+                getRequired("storage.leakage.lookuptable") : null;
+        if (!storageLeakage.matches("none|constant|percent|lookuptable"))
+            exitInvalid("storage.leakage", storageLeakage, "'none', 'constant', 'percent' or 'lookuptable'");
+        if (storageLeakagePercent >= 100)
+            exitInvalid("storage.leakage.percentperday", getRequired("storage.leakage.percentperday"),
+                        "less than 100");
+
+        // A node halted on depletion needs a resume voltage above the minimum, or it would reboot
+        //  on the next interval, and be halted again on the one after, over and over
+        storageBrownout = getBoolean("storage.brownout", false);
+
+        if (storageType.equalsIgnoreCase("battery")) {
+            batteryCapacity            = getPositiveDouble("battery.capacity");
+            batteryNominalVoltage      = getPositiveDouble("battery.nominalvoltage");
+            getRequired("battery.minoperatingvoltage");
+            batteryMinOperatingVoltage = getDouble("battery.minoperatingvoltage", 0);
+            if (storageBrownout)
+                getRequired("battery.resumevoltage");
+            batteryResumeVoltage       = getDouble("battery.resumevoltage", batteryMinOperatingVoltage);
+            if (storageBrownout && batteryResumeVoltage <= batteryMinOperatingVoltage)
+                exitInvalid("battery.resumevoltage", getRequired("battery.resumevoltage"),
+                            "above battery.minoperatingvoltage, with storage.brownout=true");
+            if (batteryResumeVoltage < batteryMinOperatingVoltage)
+                exitInvalid("battery.resumevoltage", getRequired("battery.resumevoltage"),
+                            "at least battery.minoperatingvoltage");
+        } else {
+            batteryCapacity = batteryNominalVoltage = batteryMinOperatingVoltage = batteryResumeVoltage = 0;
+        }
+
+        if (storageType.equalsIgnoreCase("capacitor")) {
+            capacitorCapacitance         = getPositiveDouble("capacitor.capacitance");
+            capacitorMaxVoltage          = getPositiveDouble("capacitor.maxvoltage");
+            getRequired("capacitor.minoperatingvoltage");
+            capacitorMinOperatingVoltage = getDouble("capacitor.minoperatingvoltage", 0);
+            if (storageBrownout)
+                getRequired("capacitor.resumevoltage");
+            capacitorResumeVoltage       = getDouble("capacitor.resumevoltage", capacitorMinOperatingVoltage);
+            if (storageBrownout && capacitorResumeVoltage <= capacitorMinOperatingVoltage)
+                exitInvalid("capacitor.resumevoltage", getRequired("capacitor.resumevoltage"),
+                            "above capacitor.minoperatingvoltage, with storage.brownout=true");
+            if (capacitorResumeVoltage < capacitorMinOperatingVoltage)
+                exitInvalid("capacitor.resumevoltage", getRequired("capacitor.resumevoltage"),
+                            "at least capacitor.minoperatingvoltage");
+            capacitorLeakageResistance   = getDouble("capacitor.leakageresistance", Double.POSITIVE_INFINITY);
+            if (capacitorLeakageResistance <= 0)
+                exitInvalid("capacitor.leakageresistance", getRequired("capacitor.leakageresistance"),
+                            "a positive number");
+            capacitorInitialVoltage      = getDouble("capacitor.initialvoltage", capacitorMaxVoltage);
+        } else {
+            capacitorCapacitance = capacitorMaxVoltage = capacitorMinOperatingVoltage = 0;
+            capacitorResumeVoltage = capacitorLeakageResistance = capacitorInitialVoltage = 0;
+        }
+
+        batch = getBoolean("simulation.batch", true);
+        parallelThreshold = getInt("simulation.parallel.threshold", 1024);
+        parallelThreads   = getInt("simulation.parallel.threads", Runtime.getRuntime().availableProcessors());
+        adaptive            = getBoolean("simulation.adaptive", false);
+        adaptiveTolerance   = getDouble("simulation.adaptive.tolerance", 0.05);
+        adaptiveMaxInterval = getDouble("simulation.adaptive.maxinterval", 3600);
+        stagger             = getBoolean("simulation.stagger", false);
+        fastForward            = getBoolean("simulation.fastforward", false);
+        fastForwardMaxInterval = getDouble("simulation.fastforward.maxinterval", 86400);
+        if (adaptiveTolerance < 0)
+            exitInvalid("simulation.adaptive.tolerance", getRequired("simulation.adaptive.tolerance"),
+                        "a non-negative number");
+
+        String level = getProperty("diagnostics.level", "info");
+        DiagnosticSink.Level diagnosticsLevel = null;
+        for (DiagnosticSink.Level l : DiagnosticSink.Level.values())
+            if (l.name().equalsIgnoreCase(level.trim()))
+                diagnosticsLevel = l;
+        if (diagnosticsLevel == null)
+            exitInvalid("diagnostics.level", level, "'off', 'error', 'info' or 'debug'");
+        this.diagnosticsLevel = diagnosticsLevel;
+        diagnosticsNodes = parseNodes("diagnostics.nodes", getProperty("diagnostics.nodes", "1"));
+        diagnosticsFile  = getProperty("diagnostics.file");
+        diagnosticsQueue = getInt("diagnostics.queue", 4096);
+    }
+
+    private static Map<Integer, Properties> collectNodeOverrides(Properties config) {
+        Map<Integer, Properties> overrides = new HashMap<Integer, Properties>();
+        for (String key : config.stringPropertyNames()) {
+            Matcher matcher = NODE_PROPERTY.matcher(key);
+            if (!matcher.matches())
+                continue;
+            Integer node = Integer.valueOf(matcher.group(1));
+            Properties nodeProperties = overrides.get(node);
+            if (nodeProperties == null) {
+                nodeProperties = new Properties();
+                overrides.put(node, nodeProperties);
+            }
+            nodeProperties.setProperty(matcher.group(2), config.getProperty(key));
+        }
+        return overrides;
+    }
+
+    /**
+     * @param nodeID the node index, starting from 0, overridden by 'node.<nodeID + 1>.<property>'
+     * @return the configuration of the node, the shared one if the node has no overrides
+     */
+    public EHConfig forNode(int nodeID) {
+        EHConfig shared = (base != null)? base : this;
+        Properties overrides = shared.nodeOverrides.get(nodeID + 1);
+        if (overrides == null)
+            return shared;
+        return new EHConfig(configFilePath, shared, overrides, null);
+    }
+
+    // --------------------------------------------------------------------------
+    public String getProperty(String key) {
+        String value = properties.getProperty(key);
+        if (value == null && base != null)
+            value = base.properties.getProperty(key);
+        return value;
+    }
+
+    public String getProperty(String key, String defaultValue) {
+        String value = getProperty(key);
+        return (value != null)? value : defaultValue;
+    }
+
+    public double getDouble(String key, double defaultValue) {
+        String value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            exitInvalid(key, value, "a number");
+            return defaultValue;
+        }
+    }
+
+    public int getInt(String key, int defaultValue) {
+        String value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            exitInvalid(key, value, "an integer");
+            return defaultValue;
+        }
+    }
+
+    public long getLong(String key, long defaultValue) {
+        String value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            exitInvalid(key, value, "an integer");
+            return defaultValue;
+        }
+    }
+
+    public boolean getBoolean(String key, boolean defaultValue) {
+        String value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        if (value.trim().equalsIgnoreCase("true"))
+            return true;
+        if (!value.trim().equalsIgnoreCase("false"))
+            exitInvalid(key, value, "'true' or 'false'");
+        return false;
+    }
+
+    private String getRequired(String key) {
+        String value = getProperty(key);
+        if (value == null) {
+            System.err.println("Energy Harvesting System Configuration file " + configFilePath
+                             + " has no '" + key + "'.. Exiting...");
+            System.exit(-1);
+        }
+        return value;
+    }
+
+    // "all", or node numbers and ranges of them, e.g. "1,3-5", into node indexes
+    private BitSet parseNodes(String key, String value) {
+        if (value.trim().equalsIgnoreCase("all"))
+            return null;
+        BitSet nodes = new BitSet();
+        try {
+            for (String token : value.split(",")) {
+                String[] range = token.trim().split("-");
+                int first = Integer.parseInt(range[0].trim());
+                int last = (range.length > 1)? Integer.parseInt(range[1].trim()) : first;
+                if (first < 1 || last < first || range.length > 2)
+                    throw new NumberFormatException();
+                nodes.set(first - 1, last);
+            }
+        } catch (NumberFormatException e) {
+            exitInvalid(key, value, "'all' or a list of node numbers, e.g. 1,3-5");
+        }
+        return nodes;
+    }
+
+    // "x,y[,z];x,y[,z];...", the positions of the stations in the Cooja topology
+    private double[][] parseStations(String key, String value) {
+        String[] stations = value.trim().split("\\s*;\\s*");
+        double[][] positions = new double[stations.length][3];
+        try {
+            for (int i = 0; i < stations.length; i++) {
+                String[] xyz = stations[i].split(",");
+                if (xyz.length < 2 || xyz.length > 3)
+                    throw new NumberFormatException();
+                for (int a = 0; a < xyz.length; a++)
+                    positions[i][a] = Double.parseDouble(xyz[a].trim());
+            }
+        } catch (NumberFormatException e) {
+            exitInvalid(key, value, "a list of positions x,y or x,y,z separated by ';'");
+        }
+        return positions;
+    }
+
+    private int getPositiveInt(String key) {
+        int value = getInt(key, 0);
+        if (value <= 0)
+            exitInvalid(key, getRequired(key), "a positive integer");
+        return value;
+    }
+
+    private double getPositiveDouble(String key) {
+        double value = getDouble(key, 0);
+        if (value <= 0)
+            exitInvalid(key, getRequired(key), "a positive number");
+        return value;
+    }
+
+    private void exitInvalid(String key, String value, String expected) {
+        System.err.println("Energy Harvesting System Configuration file " + configFilePath
+                         + ": '" + key + "=" + value + "' is not " + expected + ".. Exiting...");
+        System.exit(-1);
+    }
+
+    // --------------------------------------------------------------------------
+    public String getConfigFilePath() {
+        return configFilePath;
+    }
+
+    public String getSourceType() {
+        return sourceType;
+    }
+
+    public String getSourceName() {
+        return sourceName;
+    }
+
+    public String getSourceLookupTable() {
+        return sourceLookupTable;
+    }
+
+    public int getSourceNum() {
+        return sourceNum;
+    }
+
+    public String getTraceFilePath() {
+        return traceFilePath;
+    }
+
+    public double getSampleInterval() {
+        return sampleInterval;
+    }
+
+    public boolean isTraceBinary() {
+        return traceBinary;
+    }
+
+    public String getTraceColumnName() {
+        return traceColumnName;
+    }
+
+    public int getTracePrefetchCapacity() {
+        return tracePrefetchCapacity;
+    }
+
+    public RunLengthTrace.Encoding getTraceEncoding() {
+        return traceEncoding;
+    }
+
+    public int getTracePrefetchThreads() {
+        return tracePrefetchThreads;
+    }
+
+    public boolean isTraceTimed() {
+        return traceTimed;
+    }
+
+    public String getTraceDateTimeFormat() {
+        return traceDateTimeFormat;
+    }
+
+    public int getTraceDateColumnNo() {
+        return traceDateColumnNo;
+    }
+
+    public int getTraceTimeColumnNo() {
+        return traceTimeColumnNo;
+    }
+
+    public TimedTrace.Interpolation getTraceInterpolation() {
+        return traceInterpolation;
+    }
+
+    public double getTraceStart() {
+        return traceStart;
+    }
+
+    public double getTraceMaxGap() {
+        return traceMaxGap;
+    }
+
+    public String getTraceDelimiter() {
+        return traceDelimiter;
+    }
+
+    public int getTraceColumnNo() {
+        return traceColumnNo;
+    }
+
+    public int getTraceFileCount() {
+        return traceFileCount;
+    }
+
+    /**
+     * @param nodeID the node index, starting from 0
+     * @return the trace file of the node, '<path>/<n>.txt', or '<path>/<n>.bin' for binary traces,
+     *   where <n> is nodeID + 1, or (nodeID % count) + 1 if the number of trace files is given
+     */
+    public String getTraceFile(int nodeID) {
+        int n = (traceFileCount > 0)? nodeID % traceFileCount : nodeID;
+        return traceFilePath + "/" + (n+1) + (traceBinary? BinaryTrace.EXTENSION : ".txt");
+    }
+
+    /**
+     * @param station the station index of the field, starting from 0
+     * @return the trace file of the station, '<path>/<station + 1>.txt', or '.bin' for binary traces,
+     *   whatever the number of trace files of the nodes
+     */
+    public String getFieldStationTraceFile(int station) {
+        return traceFilePath + "/" + (station+1) + (traceBinary? BinaryTrace.EXTENSION : ".txt");
+    }
+
+    public boolean isEnvironmentSynthetic() {
+        return environmentSynthetic;
+    }
+
+    public long getSyntheticSeed() {
+        return syntheticSeed;
+    }
+
+    public double getSyntheticPeakLux() {
+        return syntheticPeakLux;
+    }
+
+    public double getSyntheticSunrise() {
+        return syntheticSunrise;
+    }
+
+    public double getSyntheticSunset() {
+        return syntheticSunset;
+    }
+
+    public double getSyntheticClearDuration() {
+        return syntheticClearDuration;
+    }
+
+    public double getSyntheticCloudyDuration() {
+        return syntheticCloudyDuration;
+    }
+
+    public double getSyntheticCloudFactor() {
+        return syntheticCloudFactor;
+    }
+
+    public double getSyntheticJitter() {
+        return syntheticJitter;
+    }
+
+    public boolean isEnvironmentSolar() {
+        return environmentSolar;
+    }
+
+    public double getSolarLatitude() {
+        return solarLatitude;
+    }
+
+    public double getSolarLongitude() {
+        return solarLongitude;
+    }
+
+    public double getSolarEpoch() {
+        return solarEpoch;
+    }
+
+    public double getSolarEfficacy() {
+        return solarEfficacy;
+    }
+
+    public double getSolarAttenuation() {
+        return solarAttenuation;
+    }
+
+    public boolean isEnvironmentField() {
+        return environmentField;
+    }
+
+    public double[][] getFieldStations() {
+        return fieldStations;
+    }
+
+    public int getFieldNeighbours() {
+        return fieldNeighbours;
+    }
+
+    public double getFieldPower() {
+        return fieldPower;
+    }
+
+    public String getHarvesterName() {
+        return harvesterName;
+    }
+
+    public String getHarvesterLookupTable() {
+        return harvesterLookupTable;
+    }
+
+    public String getStorageType() {
+        return storageType;
+    }
+
+    public String getStorageName() {
+        return storageName;
+    }
+
+    public String getStorageLookupTable() {
+        return storageLookupTable;
+    }
+
+    public int getStorageNum() {
+        return storageNum;
+    }
+
+    public String getStorageLeakage() {
+        return storageLeakage;
+    }
+
+    public double getStorageLeakageCurrent() {
+        return storageLeakageCurrent;
+    }
+
+    public double getStorageLeakagePercent() {
+        return storageLeakagePercent;
+    }
+
+    public String getStorageLeakageLookupTable() {
+        return storageLeakageLookupTable;
+    }
+
+    public boolean isStorageBrownout() {
+        return storageBrownout;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    public int getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    public int getParallelThreads() {
+        return parallelThreads;
+    }
+
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public double getAdaptiveTolerance() {
+        return adaptiveTolerance;
+    }
+
+    public double getAdaptiveMaxInterval() {
+        return adaptiveMaxInterval;
+    }
+
+    public boolean isStagger() {
+        return stagger;
+    }
+
+    public boolean isFastForward() {
+        return fastForward;
+    }
+
+    public double getFastForwardMaxInterval() {
+        return fastForwardMaxInterval;
+    }
+
+    public DiagnosticSink.Level getDiagnosticsLevel() {
+        return diagnosticsLevel;
+    }
+
+    public BitSet getDiagnosticsNodes() {
+        return (diagnosticsNodes != null)? (BitSet) diagnosticsNodes.clone() : null;
+    }
+
+    public String getDiagnosticsFile() {
+        return diagnosticsFile;
+    }
+
+    public int getDiagnosticsQueue() {
+        return diagnosticsQueue;
+    }
+
+    public double getBatteryCapacity() {
+        return batteryCapacity;
+    }
+
+    public double getBatteryNominalVoltage() {
+        return batteryNominalVoltage;
+    }
+
+    public double getBatteryMinOperatingVoltage() {
+        return batteryMinOperatingVoltage;
+    }
+
+    public double getBatteryResumeVoltage() {
+        return batteryResumeVoltage;
+    }
+
+    public double getCapacitorCapacitance() {
+        return capacitorCapacitance;
+    }
+
+    public double getCapacitorMaxVoltage() {
+        return capacitorMaxVoltage;
+    }
+
+    public double getCapacitorMinOperatingVoltage() {
+        return capacitorMinOperatingVoltage;
+    }
+
+    public double getCapacitorResumeVoltage() {
+        return capacitorResumeVoltage;
+    }
+
+    public double getCapacitorLeakageResistance() {
+        return capacitorLeakageResistance;
+    }
+
+    public double getCapacitorInitialVoltage() {
+        return capacitorInitialVoltage;
+    }
+
+}
@@ -4,9 +4,10 @@ import se.sics.cooja.ClassDescription;
 import se.sics.cooja.Mote;
 import se.sics.cooja.MoteTimeEvent;
 import se.sics.cooja.Simulation;
+import se.sics.cooja.TimeEvent;
 import se.sics.cooja.mspmote.MspMote;
 import se.sics.cooja.mspmote.SkyMote;
-import se.sics.cooja.radiomediums.UDGM;
+import se.sics.cooja.interfaces.Radio;
 import se.sics.mspsim.core.MSP430;
 
 
@@ -34,11 +35,33 @@ public class EHNode{
     private PowerConsumption consumption;
 
     private boolean wasDepleted = false;
+    private final DepletionEvent depletionEvent = new DepletionEvent();
+
+    // Brown-out: the mote is halted while depleted, and consumes nothing
+    private final boolean brownout;
+    private boolean halted = false;
+    private long intervalStart;           // us, of the current charge interval
+    private long runningSince = -1;       // us, when the mote was resumed in the current interval, if it was
+    private double consumedBeforeHalt;    // mJ, in the current interval
+    private boolean haltedInInterval = false;
+    private Radio detachedRadio = null;   // from the radio medium, while halted
+
+    // Adaptive charge interval, in sample intervals of the environmental trace
+    private final boolean adaptive;
+    private final double tolerance;        // of the relative change of the powers
+    private final int maxStride;
+    private int nextStride = 1;
+    private double lastHarvestPower = Double.NaN;      // mW
+    private double lastConsumptionPower = Double.NaN;  // mW
+
+    // Fast-forward over runs of the same environmental value, e.g. dark nights
+    private final boolean fastForward;
+    private final int maxRun;     // sample intervals
+    private int constantRun = 1;  // sample intervals ahead with the same value
     
     private double lastEnergyConsumed;
     private double lastTotalEnergyConsumed;
 
-    private String configFilePath;
     private SensEHGUI senseh;
 
 
@@ -62,121 +85,313 @@ public class EHNode{
         return lastTotalEnergyConsumed;
     }
 
-    public EHNode(int nodeID, Simulation simulation, String configFilePath, SensEHGUI senseh) {
+    public EHNode(int nodeID, Simulation simulation, EHConfig config, SensEHGUI senseh) {
         this.nodeID     = nodeID;
         this.simulation = simulation;
         this.mote       = simulation.getMote(nodeID);
-        this.configFilePath = configFilePath;
         this.senseh     = senseh;
 
-        ehSys           = new EHSystem(nodeID, simulation, configFilePath);
+        ehSys           = new EHSystem(nodeID, simulation, config);
         storageMotePin  = new Pin(ehSys.getStorage(), (SkyMote) mote);
         consumption     = new PowerConsumption(simulation, mote, ehSys.getVoltage());
+
+        intervalStart   = simulation.getSimulationTime();
+        brownout        = config.isStorageBrownout() && (mote instanceof MspMote);
+        if (config.isStorageBrownout() && !brownout)
+            logger.warn("Node " + (nodeID + 1) + " is not an MSP mote, brown-out is not supported");
+
+        adaptive        = config.isAdaptive();
+        tolerance       = config.getAdaptiveTolerance();
+        maxStride       = Math.max((int) (config.getAdaptiveMaxInterval() / ehSys.getChargeInterval()), 1);
+        fastForward     = config.isFastForward();
+        maxRun          = Math.max((int) (config.getFastForwardMaxInterval() / ehSys.getChargeInterval()), 1);
+    }
+
+    public boolean isHalted() {
+        return halted;
     }
 
     public void updateCharge(){  // [iPAS]: the EH system model of the node
-        chargeStorage();
-        dischargeConsumption();
+        updateCharge(1);
+    }
+
+    /**
+     * Updates over several sample intervals of the environmental trace at once,
+     *  at their mean powers, as interval by interval, e.g. a full storage is clamped on each of them.
+     */
+    public void updateCharge(int intervals){
+        double elapsed = intervals * ehSys.getChargeInterval();
+        double charged, consumed;
+        if (intervals > 1) {
+            charged = (intervals <= constantRun)?
+                    ehSys.harvestRun(intervals) :  // In closed form, over the same value
+                    ehSys.harvest(intervals);
+            consumed = takeConsumedEnergy(elapsed);
+            ehSys.updateStorageRun(charged, consumed, elapsed, intervals);
+        } else {
+            charged = ehSys.harvest(intervals);
+            consumed = takeConsumedEnergy(elapsed);
+            ehSys.updateStorage(charged, consumed, elapsed);
+        }
+        updateState(charged, consumed, elapsed);
+        if (adaptive)
+            adaptStride(charged / elapsed, consumed / elapsed, elapsed);
+        if (fastForward)
+            fastForward(consumed / elapsed);
+    }
+
+    /**
+     * Drains what the node consumed before its first sample interval, e.g. while phase-shifted
+     *  from the other nodes, without harvesting.
+     * @param elapsed s, since the plugin started
+     */
+    public void updateLeadIn(double elapsed){
+        double consumed = takeConsumedEnergy(elapsed);
+        ehSys.updateStorage(0, consumed, elapsed);
+        updateState(0, consumed, elapsed);
+    }
+
+    /**
+     * @return the number of sample intervals the next update of the node may span,
+     *   1 if neither adaptive nor fast-forwarding
+     */
+    public int getNextStride() {
+        return nextStride;
+    }
+
+    /*
+     * Doubles the stride while the harvested and the consumed powers stay within the tolerance,
+     *  or while the storage is full and charging anyway; halves it when they change more,
+     *  and falls back to single intervals on fast changes, e.g. at dawn.
+     * Near a depletion or resume threshold, the stride ends before it is crossed.
+     */
+    private void adaptStride(double harvestPower, double consumptionPower, double elapsed){
+        int stride = (int) Math.round(elapsed / ehSys.getChargeInterval());
+        double change = Math.abs(harvestPower - lastHarvestPower) + Math.abs(consumptionPower - lastConsumptionPower);
+        double scale = Math.max(Math.max(Math.abs(harvestPower), Math.abs(lastHarvestPower)),
+                                Math.max(Math.abs(consumptionPower), Math.abs(lastConsumptionPower)));
+        lastHarvestPower = harvestPower;
+        lastConsumptionPower = consumptionPower;
+
+        boolean saturated = ehSys.getStorage().isFull() && harvestPower > consumptionPower * (1 + tolerance);
+        if (Double.isNaN(change)) {  // The first update
+            nextStride = 1;
+        } else if (change <= tolerance * scale || saturated) {
+            nextStride = Math.min(stride * 2, maxStride);
+        } else if (change > 4 * tolerance * scale) {
+            nextStride = 1;
+        } else {
+            nextStride = Math.max(stride / 2, 1);
+        }
+
+        double toCross = ehSys.getStorage().getTimeToCrossing(wasDepleted,
+                harvestPower * elapsed, consumptionPower * elapsed, elapsed);
+        if (toCross >= 0 && toCross < nextStride * ehSys.getChargeInterval())
+            nextStride = Math.max((int) (toCross / ehSys.getChargeInterval()), 1);
+    }
+
+    /*
+     * Stretches the next update over the run of the same environmental value ahead, if any,
+     *  at the consumed power of the last update; it ends before the storage crosses
+     *  its depletion or resume threshold, from where the node goes on interval by interval.
+     */
+    private void fastForward(double consumptionPower){
+        if (!adaptive)
+            nextStride = 1;
+        constantRun = ehSys.getConstantRun(maxRun);
+        if (constantRun <= nextStride)
+            return;
+
+        double span = constantRun * ehSys.getChargeInterval();
+        double toCross = ehSys.getStorage().getTimeToCrossing(wasDepleted,
+                ehSys.getNextHarvestPower() * span, consumptionPower * span, span);
+        if (toCross >= 0 && toCross < span)
+            constantRun = Math.max((int) (toCross / ehSys.getChargeInterval()), 1);
+        nextStride = Math.max(nextStride, constantRun);
+    }
+
+    /**
+     * After the storage has been updated, by updateCharge() or HarvestBatch,
+     *  follows its voltage and whether the node is depleted,
+     *  and schedules the instant at which that changes during the next interval.
+     * @param charged energy (mJ) harvested into the storage during the last interval
+     * @param consumed energy (mJ) drained from the storage during the last interval
+     * @param elapsed s, the length of the last interval
+     */
+    void updateState(double charged, double consumed, double elapsed){
         consumption.setVoltage(ehSys.getVoltage());  // Assume that it's fixed, and regulated.
         											 // But, in some case, the voltage may be varied after discharged.
         
         // TODO [iPAS]: Save historical data into database for off-line analysis
         
-        if (nodeID == 0) 
-        	System.out.format("%d[%d]: stored energy (mJ) %.4f\n", 
-        	        nodeID, simulation.getSimulationTimeMillis(), getEHSystem().getStorage().getEnergy());
-        
-        
-        if (((Battery) ehSys.getStorage()).isDepleted()) {  // Is the node depleted? Yes.
-            
-            if (nodeID == 0)
-        	if (!SensEHGUI.QUIET && wasDepleted == false) {        		
-                String str = String.format("%d[%d]: bat is empty!", mote.getID(),simulation.getSimulationTimeMillis());
-                this.senseh.log.addMessage(str);
-                logger.info(str);                
-            }        	
-            
-        	wasDepleted = true;
-        	
-        	
-        	
-        	/**
-        	 * https://sourceforge.net/p/contiki/mailman/message/25273631/
-        	 * https://sourceforge.net/p/contiki/mailman/message/27181941/
-        	 * 
-        	 * https://sourceforge.net/p/contiki/mailman/message/32354187/
-        	 */
-        	
-        	    
-        	
-        	if (nodeID == 1) {         	    
-        	    //simulation.removeMote(mote);  // Hang after all
-        	    //UDGM rm = (UDGM) simulation.getRadioMedium();
-        	    //rm.dgrm.requestEdgeAnalysis();    
-        	    //rm.dgrm.requestEdgeAnalysis();
-        	    
-        	}
-        	
-        	
-        	/*
-            // TODO [iPAS]: Stop mote if drained out.
-            if (cpu.isRunning() == true) {
-                cpu.reset();
-                cpu.stop();
-
-                // TODO [iPAS]: What about the transceiver?
+        if (DiagnosticSink.isEnabled(DiagnosticSink.Level.DEBUG, nodeID))
+            DiagnosticSink.record(DiagnosticSink.Level.DEBUG, nodeID, simulation.getSimulationTimeMillis(),
+                    "storage", "energy_mJ=%.4f voltage_V=%.3f", ehSys.getStorage().getEnergy(), ehSys.getVoltage());
+
+        boolean depleted = ehSys.getStorage().isDepleted(wasDepleted);
+        if (depleted != wasDepleted)
+            setDepleted(depleted);
+        scheduleCrossing(charged, consumed, elapsed);
+    }
+
+    /**
+     * Schedules depletionEvent at the instant the storage crosses its minimum operating voltage,
+     *  assuming the net power of the last interval holds.
+     * Rescheduled, or cancelled, on every update, as the net power changes.
+     */
+    private void scheduleCrossing(double charged, double consumed, double elapsed){
+        if (depletionEvent.isScheduled())
+            depletionEvent.remove();
+
+        double toCross = ehSys.getStorage().getTimeToCrossing(wasDepleted, charged, consumed, elapsed);  // s
+        if (toCross >= 0 && !Double.isInfinite(toCross)) {  // Not if NaN; cancelled by the next update if later
+            depletionEvent.depleting = !wasDepleted;
+            simulation.scheduleEvent(depletionEvent,
+                    simulation.getSimulationTime() + (long)(toCross * 1000000));
+        }
+    }
+
+    private class DepletionEvent extends TimeEvent {
+
+        boolean depleting;  // or refilling
+
+        DepletionEvent() {
+            super(0, "depletion event");
+        }
+
+        @Override
+        public void execute(long t) {
+            if (depleting != wasDepleted)
+                setDepleted(depleting);
+        }
+    }
+
+    private void setDepleted(boolean depleted){
+        wasDepleted = depleted;
+        if (depleted) {  // Is the node depleted? Yes.
+
+            if (DiagnosticSink.isEnabled(DiagnosticSink.Level.INFO, nodeID)) {
+                DiagnosticSink.record(DiagnosticSink.Level.INFO, nodeID, simulation.getSimulationTimeMillis(), "depleted");
+                if (!SensEHGUI.QUIET) {
+                    String str = String.format("%d[%d]: bat is empty!", mote.getID(),simulation.getSimulationTimeMillis());
+                    this.senseh.log.addMessage(str);
+                    logger.info(str);
+                }
+            }
+
+            /*
+             * https://sourceforge.net/p/contiki/mailman/message/25273631/
+             * https://sourceforge.net/p/contiki/mailman/message/27181941/
+             * https://sourceforge.net/p/contiki/mailman/message/32354187/
+             */
+            if (brownout)
+                halt();
+
+        } else {  // Currently, it is not depleted. But it was.
+
+            if (DiagnosticSink.isEnabled(DiagnosticSink.Level.INFO, nodeID)) {
+                DiagnosticSink.record(DiagnosticSink.Level.INFO, nodeID, simulation.getSimulationTimeMillis(), "refilled");
+                if (!SensEHGUI.QUIET) {
+                    String str = String.format("%d[%d]: bat is refilled", mote.getID(),simulation.getSimulationTimeMillis());
+                    this.senseh.log.addMessage(str);
+                    logger.info(str);
+                }
             }
-            */
-        	
-        	//((SkyMote) mote).stopNextInstruction();  // Make no message in the queue
-            //((SkyMote) mote).getCPU().reset();
-//            ((SkyMote) mote).mspNode.stop();
-//            ((SkyMote) mote).executeCLICommand("stop");
-        	
-//        	try {
-//                mote.wait(simulation.getSimulationTimeMillis() + (long)(ehSys.getChargeInterval() * 1000));
-//            } catch (InterruptedException e) {
-//                // TODO Auto-generated catch block
-//                e.printStackTrace();
-//            }
-        	
-//            ((SkyMote) mote).executeCLICommand("reset");
-//        	((SkyMote) mote).scheduleNextWakeup(
-//        			simulation.getSimulationTime() + (long)(ehSys.getChargeInterval() * 1000000)		
-//        			);  // Guess the time to wake up after accumulating energy
-        	
-        	        	
-        } else if (wasDepleted) {  // Currently, it is not depleted. But it was.
-            
-            if (nodeID == 0)
-            if (!SensEHGUI.QUIET) {             
-                String str = String.format("%d[%d]: bat is refilled", mote.getID(),simulation.getSimulationTimeMillis());
-                this.senseh.log.addMessage(str);
-                logger.info(str);
-            }     
-            
-            wasDepleted = false;
-            
-//            simulation.addMote(mote);
-        	
-//            ((SkyMote) mote).getCPU().reset();
-//            ((SkyMote) mote).requestImmediateWakeup();
-
-//            ((SkyMote) mote).executeCLICommand("start");
-//            ((SkyMote) mote).mspNode.start();
+
+            if (halted)
+                resume();
         }
     }
 
-    private void chargeStorage(){
-        ehSys.harvestCharge();
+    /**
+     * Halts the CPU, as a brown-out does, in the lowest power mode with the interrupts disabled,
+     *  so mspsim has no instruction to execute until resume().
+     * The energy consumed so far in the interval is kept, nothing is consumed from now on.
+     */
+    private void halt(){
+        long now = simulation.getSimulationTime();
+        long running = now - ((runningSince >= 0)? runningSince : intervalStart);
+        if (running > 0)
+            consumedBeforeHalt += running / 1000000.0 * consumption.getAveragePower();
+        consumption.reset();
+        halted = true;
+        haltedInInterval = true;
+
+        MSP430 cpu = ((MspMote) mote).getCPU();
+        cpu.writeRegister(MSP430.SR, MSP430.CPUOFF | MSP430.OSCOFF | MSP430.SCG0 | MSP430.SCG1);
+
+        // Off the radio medium, so it neither hears nor interferes, nor is in its computations,
+        //  instead of removing the mote from the simulation
+        Radio radio = mote.getInterfaces().getRadio();
+        if (radio != null && simulation.getRadioMedium() != null) {
+            simulation.getRadioMedium().unregisterRadioInterface(radio, simulation);
+            detachedRadio = radio;
+        }
     }
 
-    private void dischargeConsumption(){
-        double energyConsumed = ehSys.getChargeInterval()  /*sec*/
-                              * consumption.getAveragePower()  /*mW*/;
+    /**
+     * Reboots the mote, as its supply has come back, from the time being.
+     */
+    private void resume(){
+        halted = false;
+        runningSince = simulation.getSimulationTime();
+        consumption.reset();  // Nothing consumed while halted
+
+        if (detachedRadio != null) {
+            simulation.getRadioMedium().registerRadioInterface(detachedRadio, simulation);
+            detachedRadio = null;
+        }
+        ((MspMote) mote).getCPU().reset();
+        ((MspMote) mote).requestImmediateWakeup();
+    }
+
+    /**
+     * Cancels the pending events of the node.
+     */
+    void dispose(){
+        if (depletionEvent.isScheduled())
+            depletionEvent.remove();
+        if (halted) {
+            simulation.invokeSimulationThread(new Runnable() {
+                @Override
+                public void run() {
+                    if (halted)
+                        resume();  // No longer powered by SensEH
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the energy (mJ) consumed during the last interval, and starts the next one.
+     */
+    double takeConsumedEnergy(){
+        return takeConsumedEnergy(ehSys.getChargeInterval());
+    }
+
+    /**
+     * @param elapsed s, since the last time
+     */
+    double takeConsumedEnergy(double elapsed){
+        double energyConsumed;
+        long now = simulation.getSimulationTime();
+        if (!haltedInInterval) {
+            energyConsumed = elapsed  /*sec*/
+                           * consumption.getAveragePower()  /*mW*/;
+        } else {  // Only while running
+            energyConsumed = consumedBeforeHalt;
+            if (!halted && now > runningSince)
+                energyConsumed += (now - runningSince) / 1000000.0 * consumption.getAveragePower();
+        }
         consumption.snapStatistics();  // Snap the consumed energy at the time
-        ehSys.consumeCharge(energyConsumed);
         consumption.reset();
+        intervalStart = now;
+        runningSince = -1;
+        consumedBeforeHalt = 0;
+        haltedInInterval = halted;
+        lastEnergyConsumed = energyConsumed;
+        lastTotalEnergyConsumed += energyConsumed;
+        return energyConsumed;
     }
 
 }
@@ -1,19 +1,5 @@
-import java.util.Map;
-import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import se.sics.cooja.GUI;
 import se.sics.cooja.Simulation;
 
-import java.io.BufferedReader;
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-
 
 /**
  * SensEH Project
@@ -21,8 +7,8 @@ import java.io.StringReader;
  * @author raza
  * @see http://usmanraza.github.io/SensEH-Contiki/
  *
- * 'EHSystem' reads the configuration of the full energy harvesting system
- *   and initializes the system.
+ * 'EHSystem' initializes the full energy harvesting system
+ *   from the configuration of the node, see EHConfig.
  *
  * Adopted and adapted by
  * @author ipas
@@ -30,13 +16,18 @@ import java.io.StringReader;
  */
 public class EHSystem { // EHSystem put all the pieces together
 
-    private double totalHarvestedEnergy;
+    // The total harvested energy (mJ) and the last environmental value live in the arrays below,
+    //  of their own, or of HarvestBatch when the system is a view of it.
+    private double[] harvestedStore = new double[1];
+    private double[] envValueStore = new double[1];
+    private int slot = 0;
 
     private EnergySource source;
     private Harvester harvester;
     private EnergyStorage storage;
     private EnvironmentalDataProvider enviornmentalDataProvider;
     private double chargeInterval;
+    private final EnvironmentalDataProvider.Run run = new EnvironmentalDataProvider.Run();
     
     private int nodeID;
     private Simulation simulation;
@@ -57,154 +48,289 @@ public class EHSystem { // EHSystem put all the pieces together
         return storage.getVoltage() * storage.getNumStorages();
     }
 
+    public EnvironmentalDataProvider getEnvironmentalDataProvider() {
+        return enviornmentalDataProvider;
+    }
+
+    public EnergySource getSource() {
+        return source;
+    }
+
+    public int getNodeID() {
+        return nodeID;
+    }
+
     public double getTotalHarvestedEnergy() {
-        return totalHarvestedEnergy;
+        return harvestedStore[slot];
     }
 
     public void setTotalHarvestedEnergy(double energy_mj) {  // [iPAS]: for hacking only
-        totalHarvestedEnergy = energy_mj;
+        harvestedStore[slot] = energy_mj;
     }
-    
+
+    public double getLastEnvValue() {
+        return envValueStore[slot];
+    }
+
     /**
-     * Relative path converter
+     * Moves the state into the given arrays at slot, which hold it from now on.
      */
-    private String relativeToAbsolutePath(String inPath) {    	    	    
-		File fi = this.simulation.getGUI().restorePortablePath(new File(inPath));
-		return fi.getAbsolutePath(); 
+    void bindState(double[] harvestedStore, double[] envValueStore, int slot) {
+        harvestedStore[slot] = this.harvestedStore[this.slot];
+        envValueStore[slot] = this.envValueStore[this.slot];
+        this.harvestedStore = harvestedStore;
+        this.envValueStore = envValueStore;
+        this.slot = slot;
     }
     
     /**
      * Constructor
      * @param nodeID
      * @param simulation
-     * @param configFilePath
+     * @param config the configuration of the node, see EHConfig.forNode()
      */
-    public EHSystem(int nodeID, Simulation simulation, String configFilePath){                
-        this.nodeID = nodeID;        
+    public EHSystem(int nodeID, Simulation simulation, EHConfig config){
+        this.nodeID = nodeID;
         this.simulation = simulation;
-        totalHarvestedEnergy = 0;
         source 		= null;
         harvester 	= null;
         storage 	= null;
         enviornmentalDataProvider = null;
 
-        // Load configuration
-        Properties config = new Properties();
-        try {
-            FileInputStream fis = new FileInputStream(configFilePath);
-
-            /** 
-             * [iPAS]: Replace "[APPS_DIR]", "[COOJA_DIR]", "CONTIKI_DIR" .. with real paths.             * 
-             */            
-            BufferedReader reader = new BufferedReader(new InputStreamReader(fis));
-            StringBuffer sbuff = new StringBuffer();
-            
-            Pattern pattern = Pattern.compile("\\[[a-zA-Z_]+\\]");            
-            String line;
-            
-            while ((line = reader.readLine()) != null) {                
-                Matcher matcher = pattern.matcher(line);  // Find
-                if (matcher.find() == true) {
-                    line = line.split("=")[0] + "=" + relativeToAbsolutePath(line.split("=")[1]);
-                } 
-                sbuff.append(line + "\n");
-            }
-            
-            reader.close();
-            fis.close();
-            
-            config.load(new StringReader(sbuff.toString()));
-
-        } catch (FileNotFoundException e) {
-            System.err.println("Energy Harvesting System Configuration file " + configFilePath
-                             + " could not be read.. Exiting...");
-            System.exit(-1);
-
-        } catch (IOException e) {
-            System.err.println("Energy Harvesting System Configuration file " + configFilePath
-                             + " could not be loaded.. Exiting...");
-            System.exit(-1);
-        }
-
         // Initializations
-        
+
         // Initializing energy source
-        if (config.getProperty("source.type").equalsIgnoreCase("photovoltaic")) {            
+        if (config.getSourceType().equalsIgnoreCase("photovoltaic")) {
             source = new PhotovoltaicCell(
-                    config.getProperty("source.name"), 
-                    config.getProperty("source.outputpower.lookuptable"));
+                    config.getSourceName(),
+                    config.getSourceLookupTable());
             PhotovoltaicCell pvSource = (PhotovoltaicCell) source;
-            pvSource.setNumCells(Integer.parseInt(config.getProperty("source.num")));
+            pvSource.setNumCells(config.getSourceNum());
         }
 
         // Initializing environment for energy source
-        enviornmentalDataProvider = new LightDataProvider(
-                config.getProperty("source.environment.tracefile.path") + "/" + (nodeID+1) + ".txt",
-                config.getProperty("source.environment.tracefile.format.delimiter"),
-                Integer.parseInt(config.getProperty("source.environment.tracefile.format.columnno")));
-        chargeInterval = Double.parseDouble(  // in seconds, defines how frequently charge should be updated
-                config.getProperty("source.environment.sampleinterval"));
+        chargeInterval = config.getSampleInterval();  // in seconds, defines how frequently charge should be updated
+        if (config.isEnvironmentSynthetic()) {
+            enviornmentalDataProvider = new SyntheticDataProvider(  // Generated, no trace file
+                    nodeID,
+                    config.getSyntheticSeed(),
+                    chargeInterval,
+                    config.getTraceStart(),
+                    config.getSyntheticPeakLux(),
+                    config.getSyntheticSunrise(),
+                    config.getSyntheticSunset(),
+                    config.getSyntheticClearDuration(),
+                    config.getSyntheticCloudyDuration(),
+                    config.getSyntheticCloudFactor(),
+                    config.getSyntheticJitter());
+        } else if (config.isEnvironmentSolar()) {
+            SolarGeometry sky = SolarGeometry.getInstance(  // Shared by the nodes at the same place
+                    config.getSolarLatitude(),
+                    config.getSolarLongitude(),
+                    config.getSolarEpoch(),
+                    chargeInterval,
+                    config.getSolarEfficacy());
+            enviornmentalDataProvider = new SolarDataProvider(
+                    sky, config.getTraceStart(), config.getSolarAttenuation());
+        } else if (config.isEnvironmentField()) {
+            enviornmentalDataProvider = new FieldDataProvider(  // Interpolated at the position of the mote
+                    IrradianceField.getInstance(config),
+                    simulation.getMote(nodeID).getInterfaces().getPosition(),
+                    chargeInterval,
+                    config.getTraceStart());
+        } else if (config.isTraceTimed()) {
+            TimedTrace trace = TraceCache.getTimedTrace(
+                    config.getTraceFile(nodeID),
+                    config.getTraceDelimiter(),  // null for binary
+                    config.getTraceDateTimeFormat(),
+                    config.getTraceDateColumnNo(),
+                    config.getTraceTimeColumnNo(),
+                    config.getTraceColumnNo(),
+                    config.getTraceColumnName());
+            enviornmentalDataProvider = new LightDataProvider(
+                    trace, chargeInterval, config.getTraceStart(),
+                    config.getTraceInterpolation(), config.getTraceMaxGap());
+        } else if (config.getTracePrefetchCapacity() > 0 && !config.isTraceBinary()) {
+            enviornmentalDataProvider = new LightDataProvider(  // Streamed, for traces larger than memory
+                    config.getTraceFile(nodeID),
+                    config.getTraceDelimiter(),
+                    config.getTraceColumnNo(),
+                    config.getTracePrefetchCapacity(),
+                    chargeInterval);
+            enviornmentalDataProvider.seek(config.getTraceStart());
+        } else if (config.isTraceBinary()) {
+            enviornmentalDataProvider = new LightDataProvider(
+                    TraceCache.getMappedTrace(config.getTraceFile(nodeID), config.getTraceColumnName()));
+            enviornmentalDataProvider.start(chargeInterval, config.getTraceStart());
+        } else {
+            enviornmentalDataProvider = new LightDataProvider(
+                    config.getTraceFile(nodeID),
+                    config.getTraceDelimiter(),
+                    config.getTraceColumnNo(),
+                    config.getTraceEncoding());
+            enviornmentalDataProvider.start(chargeInterval, config.getTraceStart());
+        }
 
         // Initializing Harvester
         harvester = new Harvester(
-                config.getProperty("harvester.name"),
-                config.getProperty("harvester.efficiency.lookuptable"));
+                config.getHarvesterName(),
+                config.getHarvesterLookupTable());
 
         //Initializing energy storage
-        if (config.getProperty("storage.type").equalsIgnoreCase("battery")) {
+        if (config.getStorageType().equalsIgnoreCase("battery")) {
             Battery battery = new Battery(
-                    config.getProperty("storage.name"), 
-                    config.getProperty("storage.soc.lookuptable"),
-                    Double.parseDouble(config.getProperty("battery.capacity")),
-                    Double.parseDouble(config.getProperty("battery.nominalvoltage")),
-                    Double.parseDouble(config.getProperty("battery.minoperatingvoltage")));
-            battery.setNumBatteries(Integer.parseInt(config.getProperty("storage.num")));
+                    config.getStorageName(),
+                    config.getStorageLookupTable(),
+                    config.getBatteryCapacity(),
+                    config.getBatteryNominalVoltage(),
+                    config.getBatteryMinOperatingVoltage());
+            battery.setNumBatteries(config.getStorageNum());
+            battery.setResumeVoltage(config.getBatteryResumeVoltage());
             storage = battery;
+
+            if (DiagnosticSink.isEnabled(DiagnosticSink.Level.INFO, nodeID))
+                DiagnosticSink.record(DiagnosticSink.Level.INFO, nodeID, simulation.getSimulationTimeMillis(),
+                        "battery name=" + config.getStorageName(),  // Once, at the start
+                        "charge_mAh=%.1f voltage_V=%.3f energy_mJ=%.1f",
+                        battery.getCharge(), battery.getVoltage(), battery.getEnergy());
         }
-        //else if (config.getProperty("storage.type").equalsIgnoreCase("capacitor")){} //TODO
+        else if (config.getStorageType().equalsIgnoreCase("capacitor")) {
+            Supercapacitor capacitor = new Supercapacitor(
+                    config.getStorageName(),
+                    config.getCapacitorCapacitance(),
+                    config.getCapacitorMaxVoltage(),
+                    config.getCapacitorMinOperatingVoltage(),
+                    config.getCapacitorLeakageResistance(),
+                    config.getCapacitorInitialVoltage());
+            capacitor.setNumCapacitors(config.getStorageNum());
+            capacitor.setResumeVoltage(config.getCapacitorResumeVoltage());
+            storage = capacitor;
 
-    }
+            if (DiagnosticSink.isEnabled(DiagnosticSink.Level.INFO, nodeID))
+                DiagnosticSink.record(DiagnosticSink.Level.INFO, nodeID, simulation.getSimulationTimeMillis(),
+                        "capacitor name=" + config.getStorageName(),  // Once, at the start
+                        "capacitance_F=%.3f voltage_V=%.3f energy_mJ=%.1f",
+                        config.getCapacitorCapacitance(), capacitor.getVoltage(), capacitor.getEnergy());
+        }
 
-    public void harvestCharge(){ // TODO: Check the units of different quantities
-        // Read the next value from environmental trace file
-        double envValue = enviornmentalDataProvider.getNext(); // average luxs
+        // Initializing the self-discharge of the storage
+        String leakage = config.getStorageLeakage();
+        if (leakage.equals("constant"))
+            storage.setLeakage(new LeakageModel.ConstantCurrent(config.getStorageLeakageCurrent()));
+        else if (leakage.equals("percent"))
+            storage.setLeakage(new LeakageModel.PercentPerDay(config.getStorageLeakagePercent()));
+        else if (leakage.equals("lookuptable"))
+            storage.setLeakage(new LeakageModel.VoltageLookup(
+                    config.getStorageName() + " leakage", config.getStorageLeakageLookupTable()));
+    }
 
-        // Calculate the output power for the source for given environmental conditions
-        // TODO: handle the out of range values of outputpower.
-        // If envValue is too large, we should get maximum output power that can be taken from source. 
-        // It should not be arbitrary large
-        double sourceOutputPower = source.getOutputPower(envValue) / 1000;  // microWatts / 1000 = milliWatts
-        //System.out.println ("Power  = "+ sourceOutputPower + " mW");
+    /**
+     * Harvests over the last interval, see updateStorage() for storing it.
+     * @return the energy (mJ) harvested, to be stored
+     */
+    public double harvest(){
+        return harvest(1);
+    }
 
+    /**
+     * Harvests over the last intervals, each with its environmental value,
+     *  at the voltage of the storage at the start of the first one,
+     *  once for each run of intervals with the same value.
+     * @return the energy (mJ) harvested, to be stored
+     */
+    public double harvest(int intervals){ // TODO: Check the units of different quantities
         // Get current cumulative voltage for all batteries
         double volts = storage.getVoltage() * storage.getNumStorages();
         //System.out.println ("Current Voltage  = "+ volts + " V");
 
-        // Get the efficiency of the harvester at given volts and output power
-        double harvEfficiency = harvester.getEfficiency(sourceOutputPower, volts);
-        //System.out.println ("harvester efficiency  = "+ (harvEfficiency *100)+ "%");
+        double envValue = 0, harvEfficiency = 0, energy = 0;
+        for (int i = 0; i < intervals; i += run.length) {
+            // Read the next values from environmental trace file, as long as they are the same
+            envValue = enviornmentalDataProvider.nextRun(run, intervals - i).value; // average luxs
+
+            // Calculate the output power for the source for given environmental conditions.
+            // Out of range envValue is clamped to the maximum output power of the source by its lookup table.
+            double sourceOutputPower = source.getOutputPower(envValue) / 1000;  // microWatts / 1000 = milliWatts
+            //System.out.println ("Power  = "+ sourceOutputPower + " mW");
 
-        // Calculating the charge actually going to the battery in milli Joule
-        double energy = source.getOutputEnergy(envValue, chargeInterval) * harvEfficiency / 1000; // mJ
+            // Get the efficiency of the harvester at given volts and output power
+            harvEfficiency = harvester.getEfficiency(sourceOutputPower, volts);
+            //System.out.println ("harvester efficiency  = "+ (harvEfficiency *100)+ "%");
 
-        if (nodeID == 0) {
-            System.out.format("%d[%d]: harvestCharge()\n", nodeID, simulation.getSimulationTimeMillis());
-            System.out.format("\tHarvested (Lux): %.2f\n", envValue);
-            System.out.format("\tActual to Bat.(mJ): %.4f\n", energy);
-            System.out.format("\tHarvester eff.(%%): %.1f\n", (harvEfficiency * 100));
+            // Calculating the charge actually going to the battery in milli Joule
+            energy += run.length * source.getOutputEnergy(envValue, chargeInterval) * harvEfficiency / 1000; // mJ
         }
-        
-        // Add the charge to the battery
-        storage.charge(energy);
-        totalHarvestedEnergy += energy;
+        envValueStore[slot] = envValue;
+
+        traceHarvest(envValue, energy, harvEfficiency);
+
+        harvestedStore[slot] += energy;
         //System.out.println (storage.getVoltage());
+        return energy;
+    }
+
+    /**
+     * @return the number of the next intervals, up to max, with the same environmental value, at least 1
+     */
+    public int getConstantRun(int max){
+        return enviornmentalDataProvider.getRunLength(max);
+    }
+
+    /**
+     * @return the power (mW) harvested at the next environmental value, at the voltage of the storage,
+     *   without reading it
+     */
+    public double getNextHarvestPower(){
+        double volts = storage.getVoltage() * storage.getNumStorages();
+        double envValue = enviornmentalDataProvider.peek();
+        double sourceOutputPower = source.getOutputPower(envValue) / 1000;  // mW
+        return source.getOutputEnergy(envValue, chargeInterval) * harvester.getEfficiency(sourceOutputPower, volts)
+                / 1000 / chargeInterval;
+    }
+
+    /**
+     * Harvests over the last intervals, all with the same environmental value, see getConstantRun(),
+     *  at the voltage of the storage at the start of the first one, reading the value once.
+     * @return the energy (mJ) harvested, to be stored
+     */
+    public double harvestRun(int intervals){
+        double volts = storage.getVoltage() * storage.getNumStorages();
+        double envValue = enviornmentalDataProvider.getNext();
+        enviornmentalDataProvider.skip(intervals - 1);
+
+        double sourceOutputPower = source.getOutputPower(envValue) / 1000;  // mW
+        double harvEfficiency = harvester.getEfficiency(sourceOutputPower, volts);
+        double energy = intervals * source.getOutputEnergy(envValue, chargeInterval) * harvEfficiency / 1000; // mJ
+        envValueStore[slot] = envValue;
+
+        traceHarvest(envValue, energy, harvEfficiency);
+
+        harvestedStore[slot] += energy;
+        return energy;
     }
 
-    /** To be called by EHNode.dischargeConsumption() periodically 
-     *   to drain the power used by PowerConsumption and Leakage Models from Storage.
-     *  TODO: However, the Leakage Model class have not implemented yet.
+    void traceHarvest(double envValue, double energy, double harvEfficiency) {
+        if (DiagnosticSink.isEnabled(DiagnosticSink.Level.DEBUG, nodeID))
+            DiagnosticSink.record(DiagnosticSink.Level.DEBUG, nodeID, simulation.getSimulationTimeMillis(),
+                    "harvest", "lux=%.2f charged_mJ=%.4f efficiency_pct=%.1f",
+                    envValue, energy, harvEfficiency * 100);
+    }
+
+    /** To be called by EHNode.updateCharge() periodically
+     *   to add the harvested energy to the storage, and to drain the energy used by PowerConsumption
+     *   and the Leakage Model of the storage, over the interval.
+     * @param elapsed s, the length of the interval
+     */
+    public void updateStorage(double energyHarvested, double energyConsumed, double elapsed) {
+        storage.update(energyHarvested, energyConsumed, elapsed);
+    }
+
+    /**
+     * As updateStorage(), over several intervals at the same powers, see harvestRun(),
+     *  or at their mean powers over an adaptive stride, as interval by interval,
+     *  in closed form where the storage allows it.
      */
-    public void consumeCharge(double energyConsumed) {
-        storage.discharge(energyConsumed);
+    public void updateStorageRun(double energyHarvested, double energyConsumed, double elapsed, int intervals) {
+        storage.updateRun(energyHarvested / intervals, energyConsumed / intervals, elapsed / intervals, intervals);
     }
 }
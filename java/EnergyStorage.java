@@ -1,3 +1,6 @@
+import java.util.Arrays;
+
+
 /**
  * SensEH Project
  * Originated by 
@@ -9,9 +12,45 @@
  * @since 2015-05-01
  */
 public abstract class EnergyStorage {
-  
+
+  private static final int LEAKAGE_CELLS = 64;  // of the energy range, at least, see getLeakageTable()
+
+  protected LeakageModel leakage = null;  // none
+
+  // The leakage power (mW) at energies (mJ) of a storage, linear in between, null if none
+  private double[] leakageEnergies;
+  private double[] leakagePowers;
+  private LeakageModel leakageTabled;  // the model of the table
+
   abstract double getVoltage();
 
+  /**
+   * @return V, of a storage holding the energy (mJ)
+   */
+  abstract double getVoltage(double energy_mj);
+
+  /**
+   * @return mJ, held by a storage at the voltage, NaN if it cannot be told
+   */
+  abstract double getEnergyAt(double voltage);
+
+  /**
+   * @return V, at which a current drained from a storage holding the energy (mJ) turns into power
+   */
+  abstract double getChargeVoltage(double energy_mj);
+
+  /**
+   * @return mJ, of a storage charged to its maximum
+   */
+  abstract double getMaxEnergy();
+
+  /**
+   * @return mJ, the energies at which the voltage stops being linear in the energy, none by default
+   */
+  double[] getEnergyKnots() {
+    return new double[0];
+  }
+
   abstract void charge(double energy_mj);
 
   abstract void discharge(double energy_mj);
@@ -20,4 +59,231 @@ public abstract class EnergyStorage {
 
   abstract int getNumStorages();
 
+  /**
+   * @return whether the storage is charged to its maximum, so it cannot store more
+   */
+  abstract boolean isFull();
+
+  /**
+   * Charges and discharges the storage over an interval, at constant powers.
+   * By default, as charge() and then discharge().
+   */
+  void update(double charged_mj, double discharged_mj, double interval) {
+    charge(charged_mj);
+    discharge(discharged_mj);
+  }
+
+  /**
+   * Updates the storage as update() would over each of several intervals in a row,
+   *  at the same powers, in closed form.
+   * By default, for a storage updated by charge() and then discharge(): once drained, it stays
+   *  drained at the net loss of each interval; once full while gaining, it stays just short of full
+   *  by the energy discharged in an interval, so the clamps fall where they do interval by interval.
+   * @param charged_mj over each interval
+   * @param discharged_mj over each interval
+   * @param interval s, each
+   */
+  void updateRun(double charged_mj, double discharged_mj, double interval, int intervals) {
+    update(charged_mj, discharged_mj, interval);
+    int rest = intervals - 1;
+    if (rest <= 0)
+      return;
+    if (charged_mj <= discharged_mj) {
+      discharge(rest * (discharged_mj - charged_mj));
+    } else {
+      charge(rest * (charged_mj - discharged_mj) + discharged_mj);
+      discharge(discharged_mj);
+    }
+  }
+
+  /**
+   * @param wasDepleted for the hysteresis between the minimum operating and the resume voltages
+   */
+  abstract boolean isDepleted(boolean wasDepleted);
+
+  /**
+   * @return the time (s) until the storage crosses its minimum operating voltage,
+   *   or its resume voltage if depleted, if charged and discharged at the same powers
+   *   as over the last interval; infinite if it does not, NaN if it cannot be told
+   */
+  abstract double getTimeToCrossing(boolean depleted, double charged_mj, double discharged_mj, double interval);
+
+  public void setLeakage(LeakageModel leakage) {
+    this.leakage = leakage;
+    leakageTabled = null;
+  }
+
+  public LeakageModel getLeakage() {
+    return leakage;
+  }
+
+  // --------------------------------------------------------------------------
+  /**
+   * Integrates dE/dt = power - rate x E over an interval, in closed form.
+   * The energy moves monotonically towards power / rate, so clamping it afterwards
+   *  is the same as holding it once it reaches 0 or maxEnergy.
+   * @param energy mJ, at the start
+   * @param power mW
+   * @param rate 1/s, 0 for none
+   */
+  static double integrate(double energy, double power, double rate, double interval, double maxEnergy) {
+    double e;
+    if (rate == 0) {
+      e = energy + power * interval;
+    } else {
+      double equilibrium = power / rate;
+      e = equilibrium + (energy - equilibrium) * Math.exp(-rate * interval);
+    }
+    return Math.max(Math.min(e, maxEnergy), 0);
+  }
+
+  /**
+   * Integrates dE/dt = power - rate x E - P_leak(E) over an interval, where P_leak(E) is the power
+   *  of the leakage current, linear in E between the energies of the leakage table,
+   *  see getLeakageTable(): in closed form over each piece, see integrate(), and from one piece
+   *  to the next at the instant the energy crosses into it. The energy moves monotonically,
+   *  so it crosses each piece at most once.
+   * @param energy mJ, of a storage, at the start
+   * @param power mW, into a storage
+   * @param rate 1/s, of the leakage proportional to the energy
+   * @return mJ, at the end, between 0 and getMaxEnergy()
+   */
+  double integrateLeaking(double energy, double power, double rate, double interval) {
+    double maxEnergy = getMaxEnergy();
+    double[] es = getLeakageTable();
+    if (es == null)
+      return integrate(energy, power, rate, interval, maxEnergy);
+    double[] ps = leakagePowers;
+
+    int last = es.length - 2;  // piece
+    for (int crossed = 0; crossed <= es.length; crossed++) {
+      int k = getPiece(es, energy, power, rate);
+      double slope = (ps[k + 1] - ps[k]) / (es[k + 1] - es[k]);
+      double p = power - (ps[k] - slope * es[k]);
+      double r = rate + slope;
+      boolean rising = p - r * energy > 0;
+      double t = (rising && k == last || !rising && k == 0)?  // Clamped beyond
+              Double.POSITIVE_INFINITY : getTimeToReach(energy, rising? es[k + 1] : es[k], p, r);
+      if (!(t < interval))
+        return integrate(energy, p, r, interval, maxEnergy);
+      energy = rising? es[k + 1] : es[k];
+      interval -= t;
+    }
+    return energy;
+  }
+
+  /**
+   * As getTimeToReach(), with the leakage current, see integrateLeaking().
+   */
+  double getTimeToReachLeaking(double energy, double target, double power, double rate) {
+    double[] es = getLeakageTable();
+    if (es == null || target != target)
+      return getTimeToReach(energy, target, power, rate);
+    double[] ps = leakagePowers;
+
+    double time = 0;
+    for (int crossed = 0; crossed <= es.length; crossed++) {
+      int k = getPiece(es, energy, power, rate);
+      double slope = (ps[k + 1] - ps[k]) / (es[k + 1] - es[k]);
+      double p = power - (ps[k] - slope * es[k]);
+      double r = rate + slope;
+      boolean rising = p - r * energy > 0;
+      if (rising != (target > energy))  // Moving away, or not at all
+        return Double.POSITIVE_INFINITY;
+      double end = rising? es[k + 1] : es[k];
+      if ((rising && (target <= end || k == es.length - 2)) || (!rising && (target >= end || k == 0)))
+        return time + getTimeToReach(energy, target, p, r);
+      double t = getTimeToReach(energy, end, p, r);
+      if (Double.isInfinite(t))
+        return t;
+      time += t;
+      energy = end;
+    }
+    return Double.POSITIVE_INFINITY;
+  }
+
+  // The piece of the leakage table the energy moves along: the one below it, if falling from a knot
+  private int getPiece(double[] es, double energy, double power, double rate) {
+    int lo = 0, hi = es.length - 2;
+    while (lo < hi) {
+      int mid = (lo + hi + 1) >>> 1;
+      if (es[mid] <= energy)
+        lo = mid;
+      else
+        hi = mid - 1;
+    }
+    if (lo > 0 && energy == es[lo]) {
+      double[] ps = leakagePowers;
+      if (power - rate * energy - ps[lo] < 0)
+        lo--;
+    }
+    return lo;
+  }
+
+  /**
+   * The energies at which the leakage power is known, and linear in between: a regular grid
+   *  from 0 to getMaxEnergy(), and those of the knots of the storage and of the leakage current;
+   *  built once per leakage model.
+   * @return null if there is no leakage current
+   */
+  private double[] getLeakageTable() {
+    if (leakage == null)
+      return null;
+    if (leakageTabled == leakage)
+      return leakageEnergies;
+
+    double maxEnergy = getMaxEnergy();
+    double[] knots = leakage.getKnots();
+    double[] storageKnots = getEnergyKnots();
+    double[] es = new double[LEAKAGE_CELLS + 1 + knots.length + storageKnots.length];
+    int n = 0;
+    for (int i = 0; i <= LEAKAGE_CELLS; i++)
+      es[n++] = maxEnergy * i / LEAKAGE_CELLS;
+    for (double v : knots) {
+      double e = getEnergyAt(v);
+      if (e > 0 && e < maxEnergy)
+        es[n++] = e;
+    }
+    for (double e : storageKnots)
+      if (e > 0 && e < maxEnergy)
+        es[n++] = e;
+    Arrays.sort(es, 0, n);
+
+    double[] energies = new double[n];
+    double[] powers = new double[n];
+    int m = 0;
+    boolean leaking = false;
+    for (int i = 0; i < n; i++) {
+      if (m > 0 && es[i] == energies[m - 1])
+        continue;
+      energies[m] = es[i];
+      powers[m] = leakage.getCurrent(getVoltage(es[i])) * getChargeVoltage(es[i]);
+      leaking |= powers[m] != 0;
+      m++;
+    }
+    leaking &= m > 1;
+    leakageEnergies = leaking? Arrays.copyOf(energies, m) : null;
+    leakagePowers = leaking? Arrays.copyOf(powers, m) : null;
+    leakageTabled = leakage;
+    return leakageEnergies;
+  }
+
+  /**
+   * @return the time (s) until the energy, following dE/dt = power - rate x E,
+   *   reaches target from either side, infinite if it never does or already is there
+   */
+  static double getTimeToReach(double energy, double target, double power, double rate) {
+    if (rate == 0) {
+      double t = (target - energy) / power;
+      return (t > 0)? t : Double.POSITIVE_INFINITY;  // Also for no power; NaN for a NaN target
+    }
+    double equilibrium = power / rate;
+    double ratio = (target - equilibrium) / (energy - equilibrium);
+    if (Double.isNaN(ratio))
+      return ratio;
+    if (!(ratio > 0 && ratio < 1))  // Not between the energy and the equilibrium
+      return Double.POSITIVE_INFINITY;
+    return -Math.log(ratio) / rate;
+  }
+
 }
@@ -1,9 +1,3 @@
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.IOException;
-
-
 /**
  * SensEH Project
  * Originated by
@@ -16,69 +10,284 @@ import java.io.IOException;
  */
 public class EnvironmentalDataProvider {
 
+    /**
+     * A run of samples with the same value, see nextRun().
+     */
+    public static class Run {
+        public double value;
+        public int length;  // samples
+    }
+
     private String traceFile;
-    private BufferedReader traceRdr;
+    private EnvironmentalTrace trace;
+    private int cursor;
     private long totalRead;
-    private String delimiter;
-    private int tokenNo;
+
+    // Only with a run-length trace: the run of the cursor
+    private RunLengthTrace runs;
+    private int run;
+
+    // Only with a timed trace: samples are looked up by the time instead of read in turn
+    private TimedTrace timedTrace;
+    private TimedTrace.Interpolation interpolation;
+    private double maxGap;
+    private double interval;  // s, between two getNext()
+    private double time;      // s, into the trace
+    private final int[] timeHint = new int[1];  // of the last lookup of this provider, the trace is shared
+
+    // Only with a streamed trace: samples are read ahead from the file in the background
+    private PrefetchingTraceReader stream;
 
 
     public EnvironmentalDataProvider(String traceFile, String delimiter, int tokenNo){
+        this(traceFile, delimiter, tokenNo, RunLengthTrace.Encoding.OFF);
+    }
+
+    /**
+     * @param encoding of the trace in memory, see RunLengthTrace
+     */
+    public EnvironmentalDataProvider(String traceFile, String delimiter, int tokenNo,
+                                     RunLengthTrace.Encoding encoding){
+        this(TraceCache.getTrace(traceFile, delimiter, tokenNo, encoding));  // Shared by the nodes reading the same trace
         this.traceFile = traceFile;
-        this.delimiter = delimiter;
-        this.tokenNo= tokenNo;
-        totalRead=0;
-        this.startReading();
-    }
-
-    private void startReading(){
-        try {
-            traceRdr = new BufferedReader(new FileReader(traceFile));
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-            System.err.println("Enviornmental data trace file " + traceFile +  " not found ... Exiting.... ");
-            System.exit(-1);
+    }
+
+    /**
+     * For a provider generating its values instead of reading a trace, see SyntheticDataProvider.
+     */
+    protected EnvironmentalDataProvider(){
+    }
+
+    public EnvironmentalDataProvider(EnvironmentalTrace trace){
+        this.trace = trace;
+        cursor = 0;
+        totalRead = 0;
+        if (trace instanceof RunLengthTrace) {
+            runs = (RunLengthTrace) trace;
+            run = 0;
         }
     }
 
-    // Do you really want to read the file sequentially? 
-    // Make sure that environmental data is fully clean: 1 sample every chargeInterval
+    /**
+     * @param interval s, the time passing between two getNext(), i.e. the charge interval
+     * @param start s, into the trace of the first getNext()
+     * @param maxGap s, samples further apart than this are held instead of interpolated
+     */
+    public EnvironmentalDataProvider(TimedTrace trace, double interval, double start,
+                                     TimedTrace.Interpolation interpolation, double maxGap){
+        this((EnvironmentalTrace) trace);
+        this.traceFile = trace.getTraceFile();
+        this.timedTrace = trace;
+        this.interval = interval;
+        this.interpolation = interpolation;
+        this.maxGap = maxGap;
+        seek(start);
+    }
+
+    /**
+     * Streams the trace file instead of loading it, for traces larger than memory.
+     * @param capacity samples read ahead
+     * @param interval s, the time passing between two getNext(), i.e. the charge interval
+     */
+    public EnvironmentalDataProvider(String traceFile, String delimiter, int tokenNo, int capacity,
+                                     double interval){
+        this.traceFile = traceFile;
+        this.stream = new PrefetchingTraceReader(traceFile, delimiter, tokenNo, capacity);
+        this.interval = interval;
+        totalRead = 0;
+    }
+
+    // Make sure that environmental data is fully clean: 1 sample every chargeInterval,
+    //  unless the trace is timed. The trace is started again from the 1st sample after the last one.
     public double getNext(){
-        String line = null;
-        double value = 0;
-
-        try {
-            if ((line = traceRdr.readLine()) != null){
-                String[] tokens =line.split(delimiter);
-                value = Double.parseDouble(tokens[tokenNo-1]);
-            }else{
-                // start reading again from the 1st line
-                this.stopReading();
-                this.startReading();
-                return getNext();
+        return read();
+    }
 
+    private double read(){
+        double value;
+        if (stream != null) {
+            value = stream.next();
+        } else if (timedTrace != null) {
+            value = timedTrace.valueAt(time, interpolation, maxGap, timeHint, 0);
+            time += interval;
+        } else if (runs != null) {
+            value = runs.getRunValue(run);
+            if (++cursor == runs.getRunEnd(run)) {
+                run++;
+                if (cursor == runs.size())
+                    cursor = run = 0;
             }
-        } catch (NumberFormatException e) {
-            e.printStackTrace();
-            System.err.println ("Could not parse environmental value... Exiting...");
-            System.exit(-1);
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println ("Could not read from trace file "+  traceFile +" ... Exiting...");
-            System.exit(-1);
+        } else {
+            value = trace.get(cursor);
+            if (++cursor == trace.size())
+                cursor = 0;
         }
         totalRead++;
         return value;
     }
 
-    public void stopReading(){
-        try {
-            traceRdr.close();
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println ("Could not close environmental trace file .. Exiting...");
-            System.exit(-1);
+    /**
+     * Reads the next samples with the same value at once, as many as getRunLength(max).
+     * @param holder filled in, and returned
+     */
+    public Run nextRun(Run holder, int max){
+        holder.length = getRunLength(max);
+        holder.value = read();
+        skip(holder.length - 1);
+        return holder;
+    }
+
+    /**
+     * @return the number of the next samples, up to max, with the same value as the next one,
+     *   without reading them; 1 with a streamed trace, which cannot be looked ahead
+     */
+    public int getRunLength(int max){
+        if (stream != null || max <= 1)
+            return 1;
+        int run = 1;
+        if (runs != null) {
+            return getRunLength(this.run, cursor, max);
+        } else if (timedTrace != null) {
+            double value = timedTrace.valueAt(time, interpolation, maxGap, timeHint, 0);
+            while (run < max && timedTrace.valueAt(time + run * interval, interpolation, maxGap, timeHint, 0) == value)
+                run++;
+        } else {
+            double value = trace.get(cursor);
+            int i = cursor;
+            while (run < max && run < trace.size()) {
+                if (++i == trace.size())
+                    i = 0;
+                if (trace.get(i) != value)
+                    break;
+                run++;
+            }
+            if (run == trace.size())  // The whole trace, over and over
+                run = max;
+        }
+        return run;
+    }
+
+    // Along the runs from the cursor, wrapping at the end of the trace
+    private int getRunLength(int r, int c, int max){
+        double value = runs.getRunValue(r);
+        long length = 0;
+        while (length < max) {
+            length += runs.getRunEnd(r) - c;
+            c = runs.getRunEnd(r);
+            if (++r == runs.getNumRuns())
+                r = c = 0;
+            if (runs.getRunValue(r) != value)
+                break;
+            if (length >= runs.size())  // The whole trace, over and over
+                return max;
         }
+        return (int) Math.min(length, max);
+    }
+
+    /**
+     * @return the next sample, without reading it
+     */
+    public double peek(){
+        if (stream != null)
+            return stream.peek();  // The head of the samples read ahead
+        if (timedTrace != null)
+            return timedTrace.valueAt(time, interpolation, maxGap, timeHint, 0);
+        if (runs != null)
+            return runs.getRunValue(run);
+        return trace.get(cursor);
+    }
+
+    /**
+     * Skips the next samples, as if read by getNext().
+     */
+    public void skip(int samples){
+        if (stream != null) {
+            for (int i = 0; i < samples; i++)
+                stream.next();
+        } else if (timedTrace != null) {
+            time += samples * interval;
+        } else {
+            cursor = (int) ((cursor + (long) samples) % trace.size());
+            if (runs != null)
+                run = runs.getRun(cursor);
+        }
+        totalRead += samples;
+    }
+
+    /**
+     * @param time s into the trace; with a trace that is not timed, the sample
+     *   at this time assuming one sample every interval, if given, or every second;
+     *   with a streamed trace, only one of the samples read ahead, without reading them
+     */
+    public double valueAt(double time){
+        if (stream != null) {
+            long ahead = getStreamSample(time) - totalRead;
+            if (ahead < 0 || ahead >= stream.getCapacity()) {
+                System.err.println("Streamed trace file " + traceFile + " holds only the next "
+                                 + stream.getCapacity() + " samples, not the one at " + time + " s.. Exiting...");
+                System.exit(-1);
+            }
+            return stream.peek((int) ahead);
+        }
+        if (timedTrace != null)
+            return timedTrace.valueAt(time, interpolation, maxGap, timeHint, 0);
+        long i = (long) Math.floor(time / ((interval > 0)? interval : 1)) % trace.size();
+        return trace.get((int) ((i < 0)? i + trace.size() : i));
+    }
+
+    /**
+     * Starts a trace that is not timed at the given time into it, see seek().
+     * @param interval s, between two samples, i.e. the charge interval, for seek() and valueAt()
+     */
+    public void start(double interval, double start){
+        this.interval = interval;
+        seek(start);
+    }
+
+    /**
+     * Moves to the given time into the trace, the next getNext() returns the value at it.
+     * A streamed trace can only move forward, counting the samples from its start.
+     */
+    public void seek(double time){
+        if (stream != null) {
+            long i = getStreamSample(time);
+            if (i < totalRead) {
+                System.err.println("Streamed trace file " + traceFile + " cannot be read backwards, to "
+                                 + time + " s.. Exiting...");
+                System.exit(-1);
+            }
+            skip((int) Math.min(i - totalRead, Integer.MAX_VALUE));
+        } else if (timedTrace != null) {
+            this.time = time;
+        } else {
+            long i = (long) Math.floor(time / ((interval > 0)? interval : 1)) % trace.size();
+            cursor = (int) ((i < 0)? i + trace.size() : i);
+            if (runs != null)
+                run = runs.getRun(cursor);
+        }
+    }
+
+    // The sample of a streamed trace at the time, counted from the start of the stream
+    private long getStreamSample(double time){
+        return (long) Math.floor(time / ((interval > 0)? interval : 1));
+    }
+
+    public long getTotalRead(){
+        return totalRead;
+    }
+
+    public String getTraceFile(){
+        return traceFile;
+    }
+
+    public long getPrefetchStalls(){
+        return (stream != null)? stream.getStalls() : 0;
+    }
+
+    public void stopReading(){
+        if (stream != null)
+            stream.close();
+        // Otherwise the trace has been read into memory, no file is held open
     }
 
 }
@@ -0,0 +1,21 @@
+/**
+ * SensEH Project
+ *
+ * 'EnvironmentalTrace' is a read-only series of environmental samples,
+ *   one sample every charge interval, as served by EnvironmentalDataProvider.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public abstract class EnvironmentalTrace {
+
+    // Number of samples
+    public abstract int size();
+
+    // The i-th sample, 0 <= i < size()
+    public abstract double get(int i);
+
+    // Heap memory held by the samples
+    abstract long getSizeInBytes();
+
+}
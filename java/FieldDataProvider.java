@@ -0,0 +1,120 @@
+import java.util.Observable;
+import java.util.Observer;
+
+import se.sics.cooja.interfaces.Position;
+
+
+/**
+ * SensEH Project
+ *
+ * 'FieldDataProvider' reads the light at the position of the mote from an IrradianceField,
+ *   instead of the trace of the node, one sample every charge interval, in lux.
+ *
+ * The weights of the nearest stations are computed when the provider is created, and again
+ *   whenever the mote moves, as notified by its Position interface, e.g. from the GUI thread;
+ *   they are replaced at once, so a sample is read with either the old or the new ones.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class FieldDataProvider extends EnvironmentalDataProvider implements Observer {
+
+    private final IrradianceField field;
+    private final Position position;
+    private final double interval;  // s, between two getNext()
+    private volatile IrradianceField.Weights weights;
+
+    private long sample = 0;        // next
+    private long totalRead = 0;
+
+
+    /**
+     * @param position of the mote, followed until stopReading()
+     * @param interval s, the time passing between two getNext(), i.e. the charge interval
+     * @param start s into the traces, of the first getNext()
+     */
+    public FieldDataProvider(IrradianceField field, Position position, double interval, double start) {
+        this.field = field;
+        this.position = position;
+        this.interval = interval;
+        updateWeights();
+        position.addObserver(this);
+        seek(start);
+    }
+
+    private void updateWeights() {
+        weights = field.getWeights(position.getXCoordinate(), position.getYCoordinate(),
+                                   position.getZCoordinate());
+    }
+
+    /**
+     * The mote has moved.
+     */
+    @Override
+    public void update(Observable o, Object arg) {
+        updateWeights();
+    }
+
+    // The traces are of raw light counts, as those of the nodes, see LightDataProvider
+    private double getValue(long k) {
+        return LightDataProvider.CALIBRATION_CONST * field.getValue(weights, k);
+    }
+
+    // --------------------------------------------------------------------------
+    @Override
+    public double getNext(){
+        totalRead++;
+        return getValue(sample++);
+    }
+
+    @Override
+    public double peek(){
+        return getValue(sample);
+    }
+
+    @Override
+    public int getRunLength(int max){
+        if (max <= 1)
+            return 1;
+        double value = getValue(sample);
+        int run = 1;
+        while (run < max && getValue(sample + run) == value)
+            run++;
+        return run;
+    }
+
+    @Override
+    public Run nextRun(Run holder, int max){
+        holder.length = getRunLength(max);
+        holder.value = getNext();
+        skip(holder.length - 1);
+        return holder;
+    }
+
+    @Override
+    public void skip(int samples){
+        sample += samples;
+        totalRead += samples;
+    }
+
+    @Override
+    public double valueAt(double time){
+        return getValue(Math.max((long) Math.floor(time / interval), 0));
+    }
+
+    @Override
+    public void seek(double time){
+        sample = Math.max((long) Math.floor(time / interval), 0);
+    }
+
+    @Override
+    public long getTotalRead(){
+        return totalRead;
+    }
+
+    @Override
+    public void stopReading(){
+        position.deleteObserver(this);
+    }
+
+}
@@ -0,0 +1,231 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+/**
+ * SensEH Project
+ *
+ * 'HarvestBatch' updates the charges of all the nodes together, a step at a time,
+ *   instead of node by node through EHNode.updateCharge().
+ *
+ * The state of the nodes is held in parallel arrays, a slot per node,
+ *   which the batteries and the EH systems of the nodes are views of,
+ *   so each step is a tight loop over primitive arrays with the shared lookup tables.
+ * The arithmetic is the one of the node-by-node update, in the same order,
+ *   so the results are the same.
+ *
+ * A batch is possible only if all the nodes have batteries without leakage, and photovoltaic cells
+ *   and harvesters with the same lookup tables, see create(); otherwise the nodes are updated one by one.
+ *
+ * Every update has three phases. The environmental values and the consumed energies
+ *   are taken on the simulation thread, then the harvest and storage math runs,
+ *   split among the threads of a fork/join pool for large batches,
+ *   then the voltages and depletion are followed on the simulation thread again.
+ * Every node is computed by itself into its own slots, so the results do not depend
+ *   on how the batch is split, and are the same as the serial ones.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class HarvestBatch {
+
+    private static final int GRAIN = 64;  // nodes computed by a task at least
+
+    private static ForkJoinPool pool;
+    private static int numThreads = Runtime.getRuntime().availableProcessors();
+
+    private final EHNode[] nodes;
+    private final int n;
+
+    // Shared by all the nodes
+    private final LookupTable pvLUT;
+    private final LookupTable3D harvesterLUT;
+
+    // Parameters, per node
+    private final EnvironmentalDataProvider[] providers;
+    private final Battery[] batteries;
+    private final double[] numCells;
+    private final double[] numBatteries;
+    private final double[] maxEnergy;        // mJ, per battery
+    private final double[] interval;         // s
+
+    // State, per node
+    private final double[] envValue;   // lux
+    private final double[] harvested;  // mJ, in total
+    private final double[] energy;     // mJ, per battery
+
+    // Scratch, per node
+    private final double[] sourcePower;  // uW
+    private final double[] volts;        // V, of all the batteries
+    private final double[] efficiency;
+    private final double[] charged;      // mJ, to all the batteries
+    private final double[] consumed;     // mJ, from all the batteries
+    private final int[] pvHints;         // last segment of the PV table, per node
+    private final int[] harvesterHints;  // last cell of the harvester table, x and y per node
+
+    private int parallelThreshold = Integer.MAX_VALUE;  // nodes, below which it stays serial
+
+
+    /**
+     * @return a batch of the nodes, or null if they cannot be updated together
+     */
+    public static HarvestBatch create(EHNode[] nodes) {
+        if (nodes.length == 0)
+            return null;
+
+        LookupTable pvLUT = null;
+        LookupTable3D harvesterLUT = null;
+        for (int i = 0; i < nodes.length; i++) {
+            EHSystem ehSys = nodes[i].getEHSystem();
+            if (!(ehSys.getSource() instanceof PhotovoltaicCell) || !(ehSys.getStorage() instanceof Battery)
+                    || ehSys.getStorage().getLeakage() != null)
+                return null;
+            PhotovoltaicCell pv = (PhotovoltaicCell) ehSys.getSource();
+            if (i == 0) {
+                pvLUT = pv.getLookupTable();
+                harvesterLUT = ehSys.getHarvester().getLookupTable();
+            } else if (pv.getLookupTable() != pvLUT
+                    || ehSys.getHarvester().getLookupTable() != harvesterLUT) {
+                return null;  // Tables shared through LookupTableRegistry are the same instances
+            } else if (ehSys.getChargeInterval() != nodes[0].getEHSystem().getChargeInterval()) {
+                return null;  // Updated together, at the same times
+            }
+        }
+        return new HarvestBatch(nodes, pvLUT, harvesterLUT);
+    }
+
+    private HarvestBatch(EHNode[] nodes, LookupTable pvLUT, LookupTable3D harvesterLUT) {
+        this.nodes = nodes;
+        this.n = nodes.length;
+        this.pvLUT = pvLUT;
+        this.harvesterLUT = harvesterLUT;
+
+        providers       = new EnvironmentalDataProvider[n];
+        batteries       = new Battery[n];
+        numCells        = new double[n];
+        numBatteries    = new double[n];
+        maxEnergy       = new double[n];
+        interval        = new double[n];
+        envValue        = new double[n];
+        harvested       = new double[n];
+        energy          = new double[n];
+        sourcePower     = new double[n];
+        volts           = new double[n];
+        efficiency      = new double[n];
+        charged         = new double[n];
+        consumed        = new double[n];
+        pvHints         = new int[n];
+        harvesterHints  = new int[2 * n];
+
+        for (int i = 0; i < n; i++) {
+            EHSystem ehSys = nodes[i].getEHSystem();
+            Battery battery = (Battery) ehSys.getStorage();
+            providers[i]    = ehSys.getEnvironmentalDataProvider();
+            batteries[i]    = battery;
+            numCells[i]     = ((PhotovoltaicCell) ehSys.getSource()).getNumCells();
+            numBatteries[i] = battery.getNumStorages();
+            maxEnergy[i]    = battery.getMaxEnergy();
+            interval[i]     = ehSys.getChargeInterval();
+
+            battery.bindEnergy(energy, i);
+            ehSys.bindState(harvested, envValue, i);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @param threshold number of nodes from which the math is computed in parallel, 0 for never
+     */
+    public void setParallelThreshold(int threshold) {
+        parallelThreshold = (threshold > 0)? threshold : Integer.MAX_VALUE;
+    }
+
+    public boolean isParallel() {
+        return n >= parallelThreshold && numThreads > 1;
+    }
+
+    /**
+     * Sets the number of threads of the fork/join pool, before the first parallel update.
+     */
+    public static synchronized void setNumThreads(int n) {
+        numThreads = Math.max(n, 1);
+    }
+
+    private static synchronized ForkJoinPool getPool() {
+        if (pool == null)
+            pool = new ForkJoinPool(numThreads);  // Its workers are daemon threads
+        return pool;
+    }
+
+    /**
+     * Charges all the nodes with the energy harvested during the last interval,
+     *  and discharges them with the energy consumed, as EHNode.updateCharge() does.
+     */
+    public void updateCharge() {
+        // Snapshot, on the simulation thread: the providers are sequential,
+        //  and the consumption is of the motes being simulated
+        for (int i = 0; i < n; i++)
+            envValue[i] = providers[i].getNext();
+        for (int i = 0; i < n; i++)
+            consumed[i] = nodes[i].takeConsumedEnergy();
+
+        // Compute
+        if (isParallel())
+            getPool().invoke(new ComputeTask(0, n));
+        else
+            compute(0, n);
+
+        // Publish, on the simulation thread
+        for (int i = 0; i < n; i++)
+            nodes[i].getEHSystem().traceHarvest(envValue[i], charged[i], efficiency[i]);
+        for (int i = 0; i < n; i++)
+            nodes[i].updateState(charged[i], consumed[i], interval[i]);  // Voltages and depletion, through the views
+    }
+
+    // Harvest, then consumption, of the nodes from (inclusive) to (exclusive)
+    private void compute(int from, int to) {
+        for (int i = from; i < to; i++)
+            sourcePower[i] = numCells[i] * pvLUT.getY(envValue[i], LookupTable.OutOfRange.CLAMP, pvHints, i);
+        for (int i = from; i < to; i++)
+            volts[i] = batteries[i].getVoltage() * numBatteries[i];  // Cached since the last update
+        for (int i = from; i < to; i++)
+            efficiency[i] = harvesterLUT.getZ(sourcePower[i] / 1000, volts[i], harvesterHints, 2 * i);
+        for (int i = from; i < to; i++) {
+            double e = sourcePower[i] * interval[i] * efficiency[i] / 1000;  // mJ
+            charged[i] = e;
+            double stored = energy[i] + (e / numBatteries[i]);
+            energy[i] = (stored > maxEnergy[i])? maxEnergy[i] : stored;
+            harvested[i] += e;
+        }
+        for (int i = from; i < to; i++) {
+            double stored = energy[i] - (consumed[i] / numBatteries[i]);
+            energy[i] = (stored < 0)? 0 : stored;
+            batteries[i].invalidateVoltage();
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    private class ComputeTask extends RecursiveAction {
+
+        private final int from, to;
+
+        ComputeTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                HarvestBatch.this.compute(from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new ComputeTask(from, mid), new ComputeTask(mid, to));
+        }
+    }
+
+}
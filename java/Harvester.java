@@ -11,13 +11,18 @@
 public class Harvester {
 
     private LookupTable3D EfficiencyLUT;
+    private final int[] hints = new int[2];  // of the last cell of this harvester, the table is shared
 
     public Harvester(String name, String lookupTableFile) {
-        EfficiencyLUT = new LookupTable3D(name, lookupTableFile );
+        EfficiencyLUT = LookupTableRegistry.getLookupTable3D(name, lookupTableFile);
+    }
+
+    LookupTable3D getLookupTable(){
+        return EfficiencyLUT;
     }
 
     public double getEfficiency(double inputPower, double batteryVoltage){
-        return EfficiencyLUT.getZ(inputPower, batteryVoltage);
+        return EfficiencyLUT.getZ(inputPower, batteryVoltage, hints, 0);
     }
 
 
@@ -0,0 +1,115 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * SensEH Project
+ *
+ * 'IrradianceField' is the light over the area of the simulation, known at a sparse set of
+ *   light sensors, the stations, each with its trace and its position in the Cooja topology,
+ *   and interpolated in between by the inverse distance weighting of Shepard:
+ *   the value at a position is the mean of the k nearest stations, weighted by 1/d^power.
+ *
+ * The stations are indexed by a KdTree, and the weights of a position are computed once,
+ *   see getWeights(), and again only when the mote moves, see FieldDataProvider;
+ *   a sample is then a dot product of the weights and the traces of the k stations.
+ * The traces are shared through TraceCache, as the traces of nodes are.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class IrradianceField {
+
+    /**
+     * The k nearest stations of a position and their weights, summing up to 1.
+     */
+    public static class Weights {
+        final int[] stations;
+        final double[] weights;
+
+        Weights(int[] stations, double[] weights) {
+            this.stations = stations;
+            this.weights = weights;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, IrradianceField> instances =
+            new ConcurrentHashMap<String, IrradianceField>();
+
+    private final EnvironmentalTrace[] traces;  // of the stations
+    private final KdTree index;
+    private final int neighbours;
+    private final double power;
+
+
+    private IrradianceField(EnvironmentalTrace[] traces, double[][] positions, int neighbours, double power) {
+        this.traces = traces;
+        this.index = new KdTree(positions);
+        this.neighbours = neighbours;
+        this.power = power;
+    }
+
+    /**
+     * @return the field of the stations of the configuration, shared by the nodes with the same one
+     */
+    public static IrradianceField getInstance(EHConfig config) {
+        double[][] positions = config.getFieldStations();
+        String key = config.getTraceFilePath() + "|" + config.getTraceDelimiter() + "|" + config.getTraceColumnNo()
+                   + "|" + config.getTraceColumnName() + "|" + config.getTraceEncoding()
+                   + "|" + Arrays.deepToString(positions)
+                   + "|" + config.getFieldNeighbours() + "|" + config.getFieldPower();
+        IrradianceField field = instances.get(key);
+        if (field != null)
+            return field;
+
+        EnvironmentalTrace[] traces = new EnvironmentalTrace[positions.length];
+        for (int i = 0; i < traces.length; i++)
+            traces[i] = config.isTraceBinary()?
+                    TraceCache.getMappedTrace(config.getFieldStationTraceFile(i), config.getTraceColumnName()) :
+                    TraceCache.getTrace(config.getFieldStationTraceFile(i), config.getTraceDelimiter(),
+                                        config.getTraceColumnNo(), config.getTraceEncoding());
+        IrradianceField created = new IrradianceField(traces, positions,
+                config.getFieldNeighbours(), config.getFieldPower());
+        field = instances.putIfAbsent(key, created);
+        return (field != null)? field : created;
+    }
+
+    public int getNumStations() {
+        return traces.length;
+    }
+
+    /**
+     * @return the weights of the nearest stations at the position; all on a station at it
+     */
+    public Weights getWeights(double x, double y, double z) {
+        int[] nearest = new int[Math.min(neighbours, traces.length)];
+        double[] distances = new double[nearest.length];
+        int found = index.findNearest(x, y, z, nearest, distances);
+
+        double[] weights = new double[found];
+        if (distances[0] == 0) {  // On the station
+            weights[0] = 1;
+        } else {
+            double sum = 0;
+            for (int i = 0; i < found; i++)
+                sum += weights[i] = Math.pow(distances[i], -power);
+            for (int i = 0; i < found; i++)
+                weights[i] /= sum;
+        }
+        return new Weights(nearest, weights);
+    }
+
+    /**
+     * @return the interpolated value of the sample, from the traces of the stations,
+     *   each started again from its first sample after its last one
+     */
+    public double getValue(Weights w, long sample) {
+        double value = 0;
+        for (int i = 0; i < w.stations.length; i++) {
+            EnvironmentalTrace trace = traces[w.stations[i]];
+            value += w.weights[i] * trace.get((int) (sample % trace.size()));
+        }
+        return value;
+    }
+
+}
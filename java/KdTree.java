@@ -0,0 +1,118 @@
+/**
+ * SensEH Project
+ *
+ * 'KdTree' indexes points in 3-D, e.g. the positions of the light sensors of an IrradianceField,
+ *   for looking up the k nearest to a position in O(log n), for small k.
+ *
+ * The tree is balanced, built once by splitting the points at the median of x, y and z in turn,
+ *   and held implicitly in an array: the node of a range of it is its middle element.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class KdTree {
+
+    private final double[][] points;  // [point][axis]
+    private final int[] tree;         // point indexes, each range split at its middle element
+
+
+    public KdTree(double[][] points) {
+        this.points = points;
+        tree = new int[points.length];
+        for (int i = 0; i < tree.length; i++)
+            tree[i] = i;
+        build(0, tree.length, 0);
+    }
+
+    public int size() {
+        return points.length;
+    }
+
+    private void build(int from, int to, int axis) {
+        if (to - from <= 1)
+            return;
+        int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, axis);
+        build(from, mid, (axis + 1) % 3);
+        build(mid + 1, to, (axis + 1) % 3);
+    }
+
+    // Quickselect: the k-th smallest along the axis at k, smaller ones before, larger ones after
+    private void select(int left, int right, int k, int axis) {
+        while (left < right) {
+            double pivot = points[tree[(left + right) >>> 1]][axis];
+            int i = left, j = right;
+            while (i <= j) {
+                while (points[tree[i]][axis] < pivot)
+                    i++;
+                while (points[tree[j]][axis] > pivot)
+                    j--;
+                if (i <= j) {
+                    int t = tree[i];
+                    tree[i++] = tree[j];
+                    tree[j--] = t;
+                }
+            }
+            if (k <= j)
+                right = j;
+            else if (k >= i)
+                left = i;
+            else
+                return;
+        }
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Finds the k nearest points to a position, nearest first.
+     * @param nearest filled in with the indexes of the points, up to its length
+     * @param distances filled in with their distances, of the same length
+     * @return the number of points found, the length of nearest, or fewer if there are fewer points
+     */
+    public int findNearest(double x, double y, double z, int[] nearest, double[] distances) {
+        double[] position = new double[] {x, y, z};
+        int k = Math.min(nearest.length, points.length);
+        double[] squared = new double[k];
+        int found = search(0, points.length, 0, position, nearest, squared, 0, k);
+        for (int i = 0; i < found; i++)
+            distances[i] = Math.sqrt(squared[i]);
+        return found;
+    }
+
+    // Keeps the nearest found so far sorted by their squared distances
+    private int search(int from, int to, int axis, double[] position,
+                       int[] nearest, double[] squared, int found, int k) {
+        if (from >= to)
+            return found;
+        int mid = (from + to) >>> 1;
+        double[] point = points[tree[mid]];
+
+        double d = 0;
+        for (int a = 0; a < 3; a++)
+            d += (point[a] - position[a]) * (point[a] - position[a]);
+        if (found < k || d < squared[found - 1]) {
+            int i = (found < k)? found++ : found - 1;
+            while (i > 0 && squared[i - 1] > d) {
+                squared[i] = squared[i - 1];
+                nearest[i] = nearest[i - 1];
+                i--;
+            }
+            squared[i] = d;
+            nearest[i] = tree[mid];
+        }
+
+        double diff = position[axis] - point[axis];
+        int next = (axis + 1) % 3;
+        if (diff < 0) {
+            found = search(from, mid, next, position, nearest, squared, found, k);
+            if (found < k || diff * diff < squared[found - 1])
+                found = search(mid + 1, to, next, position, nearest, squared, found, k);
+        } else {
+            found = search(mid + 1, to, next, position, nearest, squared, found, k);
+            if (found < k || diff * diff < squared[found - 1])
+                found = search(from, mid, next, position, nearest, squared, found, k);
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * SensEH Project
+ *
+ * 'LeakageModel' is the self-discharge of an energy storage.
+ *
+ * The leakage power is the power of a leakage current, a function of the voltage,
+ *   drained at the voltage by which the storage turns charge into energy,
+ *   e.g. the nominal voltage of a battery, or the voltage of a capacitor,
+ *   plus a part proportional to the energy, P_leak(E) = V_charge I(V(E)) + rate x E.
+ *
+ * The storage takes the first part as linear in the energy between fixed energies,
+ *   those of the knots of the current and a regular grid, and integrates dE/dt = P - P_leak(E)
+ *   in closed form over each piece, see EnergyStorage.integrateLeaking(),
+ *   at O(1) cost per piece crossed, whatever the length of the interval;
+ *   so the energy does not depend on how the time is cut into intervals.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public abstract class LeakageModel {
+
+    private static final double[] NO_KNOTS = new double[0];
+
+    /**
+     * @param voltage V, of a storage
+     * @return mA, the leakage current, none by default
+     */
+    double getCurrent(double voltage) {
+        return 0;
+    }
+
+    /**
+     * @return 1/s, the part of the leakage power proportional to the energy, none by default
+     */
+    double getRate() {
+        return 0;
+    }
+
+    /**
+     * @return V, the voltages at which the current is not linear any more, none by default
+     */
+    double[] getKnots() {
+        return NO_KNOTS;
+    }
+
+
+    // --------------------------------------------------------------------------
+    /**
+     * A constant leakage current, e.g. of the protection circuit of a battery.
+     */
+    public static class ConstantCurrent extends LeakageModel {
+
+        private final double current;  // mA
+
+        public ConstantCurrent(double current) {
+            this.current = current;
+        }
+
+        @Override
+        double getCurrent(double voltage) {
+            return current;
+        }
+    }
+
+    /**
+     * A percentage of the stored energy lost per day, e.g. the self-discharge rate
+     *   of a Ni-MH battery datasheet, compounded: E(t) = E(0) (1 - p/100)^(t/day).
+     */
+    public static class PercentPerDay extends LeakageModel {
+
+        private final double rate;  // 1/s
+
+        public PercentPerDay(double percent) {
+            rate = -Math.log(1 - percent / 100) / 86400;
+        }
+
+        @Override
+        double getRate() {
+            return rate;
+        }
+    }
+
+    /**
+     * A leakage current depending on the voltage, from a lookup table of voltage (V)
+     *   and current (mA), e.g. measured at several states of charge.
+     * It is held beyond the first and the last voltage of the table.
+     */
+    public static class VoltageLookup extends LeakageModel {
+
+        private final LookupTable currentLUT;
+        private final int[] hint = new int[1];  // of the last segment of this storage
+
+        public VoltageLookup(String name, String lookupTableFile) {
+            currentLUT = LookupTableRegistry.getLookupTable(name, lookupTableFile);
+        }
+
+        @Override
+        double getCurrent(double voltage) {
+            return currentLUT.getY(voltage, LookupTable.OutOfRange.CLAMP, hint, 0);
+        }
+
+        @Override
+        double[] getKnots() {
+            double[] knots = new double[currentLUT.getNumPoints()];
+            for (int i = 0; i < knots.length; i++)
+                knots[i] = currentLUT.getPointX(i);
+            return knots;
+        }
+    }
+
+}
@@ -21,6 +21,27 @@ public class LightDataProvider extends EnvironmentalDataProvider {
         super(traceFile, delimiter, tokenNo);
     }
 
+    public LightDataProvider(String traceFile, String delimiter, int tokenNo, RunLengthTrace.Encoding encoding) {
+        super(traceFile, delimiter, tokenNo, encoding);
+    }
+
+    public LightDataProvider(String traceFile, String delimiter, int tokenNo, int prefetchCapacity,
+                             double interval) {
+        super(traceFile, delimiter, tokenNo, prefetchCapacity, interval);
+    }
+
+    /**
+     * @param trace of raw light counts, e.g. a column of a binary trace
+     */
+    public LightDataProvider(EnvironmentalTrace trace) {
+        super(trace);
+    }
+
+    public LightDataProvider(TimedTrace trace, double interval, double start,
+                             TimedTrace.Interpolation interpolation, double maxGap) {
+        super(trace, interval, start, interpolation, maxGap);
+    }
+
     @Override
     public double getNext(){
         double lightValue_counts = super.getNext();
@@ -29,4 +50,21 @@ public class LightDataProvider extends EnvironmentalDataProvider {
         return CALIBRATION_CONST * lightValue_counts;
     }
 
+    @Override
+    public Run nextRun(Run holder, int max){
+        super.nextRun(holder, max);
+        holder.value *= CALIBRATION_CONST;
+        return holder;
+    }
+
+    @Override
+    public double peek(){
+        return CALIBRATION_CONST * super.peek();
+    }
+
+    @Override
+    public double valueAt(double time){
+        return CALIBRATION_CONST * super.valueAt(time);
+    }
+
 }
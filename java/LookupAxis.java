@@ -0,0 +1,134 @@
+/**
+ * SensEH Project
+ *
+ * 'LookupAxis' locates the piece-wise segment that contains a value on a
+ *   sorted axis of a lookup table without allocating.
+ *
+ * A segment 'i' spans (values[i], values[i+1]]; a value equal to a knot belongs
+ *   to the segment ending at that knot, as the original linear scan did.
+ * Uniformly spaced axes are indexed in O(1), irregular ones by binary search,
+ *   short ones by a branch-free count.
+ * A caller may keep the last segment it found as a hint, e.g. a node,
+ *   so its slowly varying inputs, e.g. battery charge or light, are usually resolved
+ *   by two comparisons; the axis itself holds no state, tables are shared by the nodes.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+class LookupAxis {
+
+    // Relative tolerance for considering the knots equally spaced
+    private static final double UNIFORM_TOLERANCE = 1e-9;
+    // Axes up to this number of knots are scanned rather than searched
+    private static final int SMALL_AXIS = 16;
+
+    private final double[] values;
+    private final boolean  uniform;
+    private final double   invStep;
+
+
+    LookupAxis(double[] values) {
+        this.values = values;
+
+        boolean isUniform = values.length > 2;
+        double step = (values.length > 1)? values[1] - values[0] : 0;
+        for (int i = 2; isUniform && i < values.length; i++) {
+            double d = values[i] - values[i - 1];
+            if (Math.abs(d - step) > UNIFORM_TOLERANCE * Math.abs(step))
+                isUniform = false;
+        }
+        uniform = isUniform && step > 0;
+        invStep = uniform? 1.0 / step : 0;
+    }
+
+    int length() {
+        return values.length;
+    }
+
+    double getMin() {
+        return values[0];
+    }
+
+    double getMax() {
+        return values[values.length - 1];
+    }
+
+    boolean isUniform() {
+        return uniform;
+    }
+
+    /**
+     * Returns the index 'i' of the first knot that is not less than 'value',
+     *   or length() if 'value' is greater than every knot.
+     */
+    int ceilingIndex(double value) {
+        return ceilingIndex(value, null, 0);
+    }
+
+    /**
+     * @param hints hints[slot] is the segment of the previous lookup of the caller, updated;
+     *   null for none
+     */
+    int ceilingIndex(double value, int[] hints, int slot) {
+        int n = values.length;
+
+        // Fast path: the segment of the previous lookup
+        if (hints != null) {
+            int s = hints[slot];
+            if (s >= 0 && s + 1 < n && value > values[s] && value <= values[s + 1])
+                return s + 1;
+        }
+
+        int i;
+        if (value <= values[0]) {
+            return 0;
+        } else if (value > values[n - 1]) {
+            return n;
+        } else if (n <= SMALL_AXIS) {
+            // Counting the knots below is branch-free and beats a binary search on short axes
+            i = 1;
+            for (int k = 1; k < n - 1; k++)
+                i += (values[k] < value)? 1 : 0;
+        } else if (uniform) {
+            i = (int) ((value - values[0]) * invStep);
+            if (i < 1) i = 1;
+            if (i > n - 1) i = n - 1;
+            // Correct the rounding of the estimate
+            while (i > 1 && values[i - 1] >= value) i--;
+            while (values[i] < value) i++;
+        } else {
+            int lo = 1, hi = n - 1;  // values[0] < value <= values[n-1]
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (values[mid] < value)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            i = lo;
+        }
+
+        if (hints != null)
+            hints[slot] = i - 1;
+        return i;
+    }
+
+    /**
+     * Returns the segment used for interpolation, always within [0, length()-2].
+     * Values below the first knot map to the first segment and values above
+     *   the last knot to the last one.
+     */
+    int segment(double value) {
+        return segment(value, null, 0);
+    }
+
+    int segment(double value, int[] hints, int slot) {
+        int i = ceilingIndex(value, hints, slot);
+        if (i <= 0)
+            return 0;
+        if (i >= values.length)
+            return values.length - 2;
+        return i - 1;
+    }
+
+}
@@ -1,4 +1,3 @@
-import java.awt.List;
 import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
@@ -18,14 +17,26 @@ import java.util.ArrayList;
 
 public class LookupTable {
     /**
-     *
+     * What getY() returns for x outside the range of the known points.
+     * EXTRAPOLATE continues the first or the last segment,
+     *   CLAMP holds the y of the first or the last point.
      */
+    public enum OutOfRange {
+        CLAMP, EXTRAPOLATE
+    }
+
     private String name;
     // A tab separated two column flat file (Format:x\ty)
     private String file;
     private String xCoordinate;
     private String yCoordinate;
-    private Point[] points;
+
+    // Points are kept as primitive arrays, sorted by x, for allocation-free lookups
+    private double[] xs;
+    private double[] ys;
+    private double[] slopes;  // slopes[i] of the segment between point i and i+1
+    private boolean nondecreasing;  // ys
+    private LookupAxis axis;
 
     public LookupTable(String name, String file) {
         this.name = name;
@@ -60,15 +71,46 @@ public class LookupTable {
 
         try {
             while ((line = bufRdr.readLine()) != null) {
+                if (line.trim().length() == 0)
+                    continue;
                 pointsList.add(parsePoint(line));
             }
+            bufRdr.close();
         } catch (IOException e) {
             System.err.println(name + ": Could not read Lookup Table File " + file + "\nexiting...");
             e.printStackTrace();
             System.exit(-1);
         }
-        points = pointsList.toArray(new Point[0]);
 
+        if (pointsList.size() < 2) {
+            System.err.println(name + ": Lookup Table File " + file + " needs at least two points\nexiting...");
+            System.exit(-1);
+        }
+        setPoints(pointsList);
+    }
+
+    private void setPoints(ArrayList<Point> pointsList) {
+        int n = pointsList.size();
+        xs = new double[n];
+        ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            Point p = pointsList.get(i);
+            xs[i] = p.getX();
+            ys[i] = p.getY();
+            if (i > 0 && xs[i] <= xs[i - 1]) {
+                System.err.println(name + ": Lookup Table File " + file
+                                 + " must be sorted by strictly increasing x\nexiting...");
+                System.exit(-1);
+            }
+        }
+
+        slopes = new double[n - 1];
+        nondecreasing = true;
+        for (int i = 0; i < n - 1; i++) {
+            slopes[i] = (ys[i + 1] - ys[i]) / (xs[i + 1] - xs[i]);
+            nondecreasing &= slopes[i] >= 0;
+        }
+        axis = new LookupAxis(xs);
     }
 
     private void parseXYCoordinates(String header) {
@@ -83,50 +125,66 @@ public class LookupTable {
     }
 
     // returns the value of y based on Piece-wise linear approximation between
-    // closed known points
+    // closed known points, extrapolating beyond the first and the last point
     public double getY(double x) {
-        double y;
-        Point[] piecePoints = getPieceWiseLinePoints(x);
-        //System.out.println( 
-        //        "("     + piecePoints[0].getX() + "," + piecePoints[0].getY() + 
-        //        ")---(" + piecePoints[1].getX() + "," + piecePoints[1].getY() + ")");
-        
-        double slope = (piecePoints[1].getY() - piecePoints[0].getY())
-                / (piecePoints[1].getX() - piecePoints[0].getX());
-        // System.out.println("Slope="+slope);
-        // Calculating the linear interpolation
-        y = slope * (x - piecePoints[0].getX()) + piecePoints[0].getY();
-        return y;
-    }
-
-    // returns the points for piece wise linear segment
-    private Point[] getPieceWiseLinePoints(double x) {
-        // TODO: check than the value of x fall within the range of x values of
-        // points
-        // TODO: Can we support extrapolation along with intrapolation
-        Point[] piecePoints = new Point[2];
-        boolean xInRange = false;
-        int i = 0;
-        while (i < points.length) {
-            if (x <= points[i].getX()) {
-                xInRange = true;
-                break;
-            }
-            i++;
+        return getY(x, OutOfRange.EXTRAPOLATE);
+    }
+
+    public double getY(double x, OutOfRange outOfRange) {
+        return getY(x, outOfRange, null, 0);
+    }
+
+    /**
+     * @param hints hints[slot] is the segment of the previous lookup of the caller, updated,
+     *   so slowly varying x are found at once; null for none, see LookupAxis
+     */
+    public double getY(double x, OutOfRange outOfRange, int[] hints, int slot) {
+        if (outOfRange == OutOfRange.CLAMP) {
+            if (x <= xs[0])
+                return ys[0];
+            if (x >= xs[xs.length - 1])
+                return ys[ys.length - 1];
         }
-        if (xInRange) {
-            int prev = i - 1;
-            int next = i;
-            if (i == 0) {
-                prev = 0;
-                next = 1;
-            }
-            piecePoints[0] = points[prev];
-            piecePoints[1] = points[next];
-            return piecePoints;
-        } else {
-            return null;
+        int s = axis.segment(x, hints, slot);
+        // Calculating the linear interpolation
+        return slopes[s] * (x - xs[s]) + ys[s];
+    }
+
+    /**
+     * The inverse of getY(x), extrapolating, for tables whose y never decreases with x.
+     * @return the largest x at which getY(x) <= y, infinite if there is none or no largest,
+     *   or NaN if y decreases somewhere in the table
+     */
+    public double getX(double y) {
+        if (!nondecreasing)
+            return Double.NaN;
+        int n = xs.length;
+        if (y < ys[0])
+            return (slopes[0] > 0)? xs[0] + (y - ys[0]) / slopes[0] : Double.NEGATIVE_INFINITY;
+        if (y >= ys[n - 1])
+            return (slopes[n - 2] > 0)? xs[n - 1] + (y - ys[n - 1]) / slopes[n - 2] : Double.POSITIVE_INFINITY;
+
+        int lo = 0, hi = n - 1;  // ys[lo] <= y < ys[hi]
+        while (hi - lo > 1) {
+            int mid = (lo + hi) >>> 1;
+            if (ys[mid] <= y)
+                lo = mid;
+            else
+                hi = mid;
         }
+        return xs[lo] + (y - ys[lo]) / slopes[lo];
+    }
+
+    public int getNumPoints() {
+        return xs.length;
+    }
+
+    public double getPointX(int i) {
+        return xs[i];
+    }
+
+    long getSizeInBytes() {
+        return 8L * (xs.length + ys.length + slopes.length);
     }
 
     public String getName() {
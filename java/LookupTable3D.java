@@ -25,7 +25,17 @@ public class LookupTable3D {
     private String zCoordinate;
     private double[] xValues;
     private double[] yValues;
-    private double [][] zValues;
+    private double[] zValues;  // Flattened row-major grid, z(xi,yi) at [xi * yValues.length + yi]
+
+    // Per cell bilinear coefficients {z00, z10-z00, z01, z11-z01},
+    //  cell (xi,yi) at [(xi * yCells + yi) * 4]
+    private double[] cellCoefficients;
+    private int xCells;
+    private int yCells;
+    private double[] xInvWidths;
+    private double[] yInvWidths;
+    private LookupAxis xAxis;  // The callers may remember their last cell, see getZ()
+    private LookupAxis yAxis;
 
     private ArrayList<Double> xValuesArray;
     private ArrayList<double []> zValuesArray;
@@ -94,16 +104,59 @@ public class LookupTable3D {
 
         Object[] zValuesObjArray = zValuesArray.toArray();
 
-        zValues = new double [xValues.length][yValues.length];
+        zValues = new double [xValues.length * yValues.length];
         for(int x =0; x < xValues.length ; x++){
             double[] dValues=(double[])zValuesObjArray[x];
             for(int y =0; y < yValues.length ; y++){
-                zValues[x][y]= dValues[y];
-                //System.out.print(zValues[x][y]+ "\t");
+                zValues[x * yValues.length + y]= dValues[y];
             }
-            //System.out.println();
         }
+        xValuesArray = null;  // Parsing is over
+        zValuesArray = null;
 
+        if (xValues.length == 0 || yValues.length == 0){
+            System.err.println(name+": Lookup Table File 3D " + file + " has no data\nexiting...");
+            System.exit(-1);
+        }
+        prepareCells();
+    }
+
+    // Precompute everything getZ() needs, so that a lookup is a few multiply-adds
+    private void prepareCells(){
+        int nx = xValues.length;
+        int ny = yValues.length;
+        xCells = Math.max(nx-1, 1);
+        yCells = Math.max(ny-1, 1);
+        xInvWidths = invWidths(xValues, xCells);
+        yInvWidths = invWidths(yValues, yCells);
+        xAxis = new LookupAxis(xValues);
+        yAxis = new LookupAxis(yValues);
+
+        cellCoefficients = new double [xCells * yCells * 4];
+        for (int cx = 0; cx < xCells; cx++){
+            int x0 = cx, x1 = Math.min(cx+1, nx-1);
+            for (int cy = 0; cy < yCells; cy++){
+                int y0 = cy, y1 = Math.min(cy+1, ny-1);
+                double z00 = zValues[x0 * ny + y0];
+                double z10 = zValues[x1 * ny + y0];
+                double z01 = zValues[x0 * ny + y1];
+                double z11 = zValues[x1 * ny + y1];
+                int c = (cx * yCells + cy) * 4;
+                cellCoefficients[c]   = z00;
+                cellCoefficients[c+1] = z10 - z00;
+                cellCoefficients[c+2] = z01;
+                cellCoefficients[c+3] = z11 - z01;
+            }
+        }
+    }
+
+    private static double[] invWidths(double[] values, int cells){
+        double[] inv = new double [cells];
+        for (int i = 0; i < cells && i+1 < values.length; i++){
+            double w = values[i+1] - values[i];
+            inv[i] = (w != 0)? 1.0 / w : 0;  // Repeated knot: hold the first value
+        }
+        return inv;
     }
 
     private void parseXYZCoordinates(String header){
@@ -133,107 +186,51 @@ public class LookupTable3D {
         zValuesArray.add (rowDataValues);
     }
 
-    // read a known value of z for given x and y indeces
-    /*private readZ(int xi, int yi){
-
-		return
-
-	}*/
-
-    // Find the two consecutive indeces
-    private int[] getPieceWiseLinePoints(double[] array , double value){
-        int[] arrayIndices = new int [2];
-        int i=0;
-        boolean valueInRange = false;
-        while(i<array.length){
-            if (value<=array[i]){
-                valueInRange=true;
-                break;
-            }
-            i++;
-        }
-        if (valueInRange){
-            if (i==0){
-                arrayIndices[0]=arrayIndices[1]=0;
-            }
-            else{
-                arrayIndices[0]=i-1;
-                arrayIndices[1]=i;
-            }
-            return arrayIndices;
-        }
-        // value is not in range and i == array.length
-        arrayIndices[0] = arrayIndices[1] = array.length-1;
-        //System.err.println ("LookupTable3D: Value Out of Range");
-        //System.exit(-1);
-
-        return arrayIndices;
-    }
-
     // Calculating the bilinear interpolation As described in http://en.wikipedia.org/wiki/Bilinear_interpolation
+    // Out of range x or y are held at the border of the table.
     public double getZ(double x, double y){
-        //System.out.println (xCoordinate);
-        int [] xi = getPieceWiseLinePoints(xValues, x);
-        //System.out.println (yCoordinate +"\t"+ y);
-        int [] yi = getPieceWiseLinePoints(yValues, y);
-        //System.out.println (yi[0]+ "\t"+yi[1]);
-
-        double x0 = xValues[xi[0]];
-        double y0 = yValues[yi[0]];
-        double x1 = xValues[xi[1]];
-        double y1 = yValues[yi[1]];
-
-
-        //System.out.println ("Xs:"+x0+"\t"+x1);
-        //System.out.println ("Ys:"+y0+"\t"+y1);
-
-        double z00= zValues[xi[0]][yi[0]];
-        double z10= zValues[xi[1]][yi[0]];
-        double z01= zValues[xi[0]][yi[1]];
-        double z11= zValues[xi[1]][yi[1]];
-
-        //System.out.println ("Z00:"+z00);
-        //System.out.println ("Z10:"+z10);
-        //System.out.println ("Z01:"+z01);
-        //System.out.println ("Z11:"+z11);
-
-
-        /*
-         * First try
-		  double z =
-					(
-						z00 * (x1-x) * (y1-y) +
-						z10 * (x-x0) * (y1-y) +
-						z01 * (x1-x) * (y-y0) +
-						z11 * (x-x0) * (y-y0)
-					)
-					/
-					(
-						(x1-x0)*(y1-y0)
-					);
-			// Problem zero in denominator --> NaN
-         */
-
+        return getZ(x, y, null, 0);
+    }
 
-        double r1 = z00;
-        double r2= z01;
-        // Calculating value at x
-        if (x0 != x1){
-            // Calculated r1 and r2
-            r1 = ( (x1-x)*z00 + (x-x0)*z10 ) / (x1-x0);
-            r2 = ( (x1-x)*z01 + (x-x0)*z11 ) / (x1-x0);
+    /**
+     * @param hints hints[slot] and hints[slot+1] are the x and y segments of the previous lookup
+     *   of the caller, updated; null for none, see LookupAxis
+     */
+    public double getZ(double x, double y, int[] hints, int slot){
+        int cx = 0;
+        double tx = 0;
+        if (x > xValues[0]){
+            if (x >= xValues[xValues.length-1]){
+                cx = xCells-1;
+                tx = (xValues.length > 1)? 1 : 0;
+            } else {
+                cx = xAxis.segment(x, hints, slot);
+                tx = (x - xValues[cx]) * xInvWidths[cx];
+            }
         }
 
-        double z = r1;
-
-        if (y0 != y1){
-            z = ( (y1-y)*r1 + (y-y0)*r2 ) / (y1-y0);
+        int cy = 0;
+        double ty = 0;
+        if (y > yValues[0]){
+            if (y >= yValues[yValues.length-1]){
+                cy = yCells-1;
+                ty = (yValues.length > 1)? 1 : 0;
+            } else {
+                cy = yAxis.segment(y, hints, slot + 1);
+                ty = (y - yValues[cy]) * yInvWidths[cy];
+            }
         }
 
-        return z;
-
-
+        // Calculating value at x, on both y edges of the cell, then at y
+        int c = (cx * yCells + cy) * 4;
+        double r1 = cellCoefficients[c]   + cellCoefficients[c+1] * tx;
+        double r2 = cellCoefficients[c+2] + cellCoefficients[c+3] * tx;
+        return r1 + (r2 - r1) * ty;
+    }
 
+    long getSizeInBytes(){
+        return 8L * (xValues.length + yValues.length + zValues.length + cellCoefficients.length
+                   + xInvWidths.length + yInvWidths.length);
     }
 
     void printY (){
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SensEH Project
+ *
+ * 'LookupTableRegistry' shares one parsed instance of every lookup table file
+ *   among all the nodes of the process, instead of every EHSystem parsing its own.
+ *
+ * Tables are keyed by the canonical path of their file, and are parsed again
+ *   only when the modification time of the file has changed.
+ * The tables are never modified after parsing, so they are safe to be shared.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class LookupTableRegistry {
+
+    private static class Entry<T> {
+        final long lastModified;
+        final T table;
+
+        Entry(long lastModified, T table) {
+            this.lastModified = lastModified;
+            this.table = table;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, Entry<LookupTable>> tables =
+            new ConcurrentHashMap<String, Entry<LookupTable>>();
+    private static final ConcurrentHashMap<String, Entry<LookupTable3D>> tables3D =
+            new ConcurrentHashMap<String, Entry<LookupTable3D>>();
+
+    private static final AtomicLong hits   = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+
+    private LookupTableRegistry() {
+    }
+
+    private static String canonicalPath(String file) {
+        try {
+            return new File(file).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(file).getAbsolutePath();
+        }
+    }
+
+    public static LookupTable getLookupTable(String name, String file) {
+        String key = canonicalPath(file);
+        long lastModified = new File(key).lastModified();
+
+        Entry<LookupTable> entry = tables.get(key);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.table;
+        }
+
+        misses.incrementAndGet();
+        Entry<LookupTable> parsed = new Entry<LookupTable>(lastModified, new LookupTable(name, key));
+        tables.put(key, parsed);  // A concurrent miss parses the same content, either one may win
+        return parsed.table;
+    }
+
+    public static LookupTable3D getLookupTable3D(String name, String file) {
+        String key = canonicalPath(file);
+        long lastModified = new File(key).lastModified();
+
+        Entry<LookupTable3D> entry = tables3D.get(key);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.table;
+        }
+
+        misses.incrementAndGet();
+        Entry<LookupTable3D> parsed = new Entry<LookupTable3D>(lastModified, new LookupTable3D(name, key));
+        tables3D.put(key, parsed);
+        return parsed.table;
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getBytesHeld() {  // Approximated by the size of the primitive arrays
+        long bytes = 0;
+        for (Entry<LookupTable> entry : tables.values())
+            bytes += entry.table.getSizeInBytes();
+        for (Entry<LookupTable3D> entry : tables3D.values())
+            bytes += entry.table.getSizeInBytes();
+        return bytes;
+    }
+
+    public static String getStatistics() {
+        return String.format("lookup tables: %d held (%d bytes), %d hits, %d misses",
+                tables.size() + tables3D.size(), getBytesHeld(), getHits(), getMisses());
+    }
+
+    public static void clear() {
+        tables.clear();
+        tables3D.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+}
@@ -0,0 +1,80 @@
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+
+
+/**
+ * SensEH Project
+ *
+ * 'MappedTrace' is one column of a binary trace file, see BinaryTrace,
+ *   served straight from the memory-mapped file.
+ * The operating system pages the samples in on demand, so a trace of
+ *   tens of millions of samples is ready in milliseconds and is not held on the heap.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class MappedTrace extends EnvironmentalTrace {
+
+    private final String traceFile;
+    private final BinaryTrace.Header header;
+    private final BinaryTrace.Column column;
+    private final int size;
+
+    // One of them, by the width of the column. Absolute gets are safe to be shared.
+    private final DoubleBuffer doubles;
+    private final FloatBuffer floats;
+
+
+    MappedTrace(String traceFile, BinaryTrace.Header header, BinaryTrace.Column column, MappedByteBuffer data) {
+        this.traceFile = traceFile;
+        this.header = header;
+        this.column = column;
+        this.size = header.rows;
+        data.order(ByteOrder.LITTLE_ENDIAN);
+        if (column.bytesPerValue == 8) {
+            doubles = data.asDoubleBuffer();
+            floats = null;
+        } else {
+            doubles = null;
+            floats = data.asFloatBuffer();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public double get(int i) {
+        return (doubles != null)? doubles.get(i) : floats.get(i);
+    }
+
+    @Override
+    long getSizeInBytes() {
+        return 0;  // Mapped, not on the heap
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    public double getSampleInterval() {
+        return header.sampleInterval;
+    }
+
+    public long getStartTimestamp() {
+        return header.startTimestamp;
+    }
+
+    public String getColumnName() {
+        return column.name;
+    }
+
+    public String getUnit() {
+        return column.unit;
+    }
+
+}
@@ -17,9 +17,10 @@ public class PhotovoltaicCell extends EnergySource {
      */
     private LookupTable lxPwrLUT;
     private int         numCells;
+    private final int[] hint = new int[1];  // of the last segment of this cell, the table is shared
 
     public PhotovoltaicCell(String model, String lookupTableFile) {
-        lxPwrLUT = new LookupTable(model, lookupTableFile);
+        lxPwrLUT = LookupTableRegistry.getLookupTable(model, lookupTableFile);
         numCells = 1;
     }
 
@@ -27,10 +28,19 @@ public class PhotovoltaicCell extends EnergySource {
         this.numCells = numCells;
     }
 
-    // Return output power in micro watts
+    public int getNumCells() {
+        return numCells;
+    }
+
+    LookupTable getLookupTable() {
+        return lxPwrLUT;
+    }
+
+    // Return output power in micro watts,
+    // held at the last known point for light beyond the lookup table
     @Override
     public double getOutputPower(double lux) {
-        return numCells * lxPwrLUT.getY(lux);
+        return numCells * lxPwrLUT.getY(lux, LookupTable.OutOfRange.CLAMP, hint, 0);
     }
 
     // Returns energy in micro joule
@@ -0,0 +1,272 @@
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SensEH Project
+ *
+ * 'PrefetchingTraceReader' streams a text trace that is too large to be held in memory.
+ *
+ * Background reader threads, shared by all the readers, fill a bounded ring of samples
+ *   ahead of the simulation thread, and read again as soon as half of it has been consumed.
+ * A full ring stops the reading (backpressure), so memory per node is the size of the ring.
+ * The file is opened only while a refill reads it, at the offset where the last one stopped,
+ *   so no file descriptor is held between refills.
+ * next() and peek() block only if the ring has run dry, which is counted as a stall.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class PrefetchingTraceReader {
+
+    private static final int CHUNK = 64 * 1024;  // bytes read at once
+
+    private static ExecutorService readers;
+    private static int numReaders = 1;
+    private static final AtomicLong totalStalls = new AtomicLong();
+
+    private final String traceFile;
+    private final String delimiter;
+    private final char   delimiterChar;  // 0 if the delimiter is a regular expression
+    private final int    tokenNo;
+
+    private final double[] ring;
+    private final int mask;
+    private final int lowWatermark;
+    private volatile long head;  // next sample to be consumed, written by the consumer only
+    private volatile long tail;  // next sample to be produced, written by the reader only
+    private final Object lock = new Object();
+
+    private long fileOffset;     // reader only
+    private boolean sampleSinceStart;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private volatile boolean closed;
+    private volatile String error;
+    private final AtomicLong stalls = new AtomicLong();
+
+    private final Runnable refill = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                fill();
+            } catch (IOException e) {
+                error = "Could not read from trace file " + traceFile + ": " + e.getMessage();
+            } catch (NumberFormatException e) {
+                error = "Could not parse environmental value in " + traceFile + ": " + e.getMessage();
+            } catch (ArrayIndexOutOfBoundsException e) {
+                error = "No column " + tokenNo + " in " + traceFile;
+            } finally {
+                refillScheduled.set(false);
+                synchronized (lock) {
+                    lock.notifyAll();
+                }
+            }
+            // Consumed meanwhile below the watermark
+            if (!closed && error == null && tail - head <= lowWatermark)
+                scheduleRefill();
+        }
+    };
+
+
+    /**
+     * @param capacity samples held ahead, rounded up to a power of two
+     */
+    public PrefetchingTraceReader(String traceFile, String delimiter, int tokenNo, int capacity) {
+        this.traceFile = traceFile;
+        this.delimiter = delimiter;
+        this.tokenNo = tokenNo;
+        if (delimiter.length() == 1 && ".$|()[{^?*+\\".indexOf(delimiter.charAt(0)) < 0)
+            delimiterChar = delimiter.charAt(0);
+        else
+            delimiterChar = 0;
+
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        ring = new double[size];
+        mask = size - 1;
+        lowWatermark = size / 2;
+        head = tail = 0;
+        fileOffset = 0;
+
+        if (!new java.io.File(traceFile).canRead()) {
+            System.err.println("Enviornmental data trace file " + traceFile +  " not found ... Exiting.... ");
+            System.exit(-1);
+        }
+        scheduleRefill();
+    }
+
+    /**
+     * Sets the number of background reader threads, before the first reader is created.
+     */
+    public static synchronized void setNumReaderThreads(int n) {
+        numReaders = Math.max(n, 1);
+    }
+
+    private static synchronized ExecutorService getReaders() {
+        if (readers == null) {
+            readers = Executors.newFixedThreadPool(numReaders, new ThreadFactory() {
+                private int n = 0;
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "SensEH trace reader " + (n++));
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return readers;
+    }
+
+    private void scheduleRefill() {
+        if (refillScheduled.compareAndSet(false, true))
+            getReaders().execute(refill);
+    }
+
+    // --------------------------------------------------------------------------
+    public double next() {
+        long h = head;
+        await(h + 1);
+        double value = ring[(int) (h & mask)];
+        head = h + 1;
+        if (tail - (h + 1) <= lowWatermark)
+            scheduleRefill();
+        return value;
+    }
+
+    /**
+     * @return the next sample, without consuming it
+     */
+    public double peek() {
+        return peek(0);
+    }
+
+    /**
+     * @param ahead samples after the next one, less than getCapacity()
+     * @return that sample, without consuming any
+     */
+    public double peek(int ahead) {
+        long i = head + ahead;
+        await(i + 1);
+        return ring[(int) (i & mask)];
+    }
+
+    // Blocks until the samples up to the given one, excluded, have been read
+    private void await(long end) {
+        if (end > tail) {
+            stalls.incrementAndGet();
+            totalStalls.incrementAndGet();
+            scheduleRefill();
+            synchronized (lock) {
+                while (end > tail && error == null) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+            }
+            if (error != null) {
+                System.err.println(error + " ... Exiting...");
+                System.exit(-1);
+            }
+        }
+    }
+
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public static long getTotalStalls() {
+        return totalStalls.get();
+    }
+
+    public int getCapacity() {
+        return ring.length;
+    }
+
+    public void close() {
+        closed = true;
+    }
+
+    // --------------------------------------------------------------------------
+    // Reads lines until the ring is full, on a reader thread
+    private void fill() throws IOException {
+        long t = tail;
+        long free = ring.length - (t - head);
+        if (free <= 0 || closed)
+            return;
+
+        FileInputStream in = new FileInputStream(traceFile);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK);
+            StringBuilder line = new StringBuilder(64);
+            channel.position(fileOffset);
+            long lineStart = fileOffset;
+            long position = fileOffset;
+
+            while (free > 0 && !closed) {
+                buffer.clear();
+                int n = channel.read(buffer);
+                if (n < 0) {  // EOF, a last line without a newline is complete too
+                    if (line.length() > 0) {
+                        ring[(int) (t & mask)] = parse(line);
+                        t++;
+                        free--;
+                        line.setLength(0);
+                        sampleSinceStart = true;
+                    }
+                    if (!sampleSinceStart)
+                        throw new IOException("no samples");
+                    sampleSinceStart = false;
+                    // Start reading again from the 1st line
+                    channel.position(0);
+                    lineStart = position = 0;
+                    continue;
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining() && free > 0) {
+                    char c = (char) (buffer.get() & 0xff);
+                    position++;
+                    if (c == '\n') {
+                        if (line.length() > 0 && !(line.length() == 1 && line.charAt(0) == '\r')) {
+                            ring[(int) (t & mask)] = parse(line);
+                            t++;
+                            free--;
+                            sampleSinceStart = true;
+                        }
+                        line.setLength(0);
+                        lineStart = position;
+                    } else {
+                        line.append(c);
+                    }
+                }
+                tail = t;  // Publish what has been read so far
+            }
+            fileOffset = lineStart;  // The next refill starts from the first unread line
+        } finally {
+            tail = t;
+            in.close();
+        }
+    }
+
+    private double parse(StringBuilder sb) {
+        int end = sb.length();
+        if (end > 0 && sb.charAt(end - 1) == '\r')
+            end--;
+        String line = sb.substring(0, end);
+        String token = (delimiterChar != 0)?
+                ArrayTrace.token(line, delimiterChar, tokenNo) : line.split(delimiter)[tokenNo - 1];
+        return Double.parseDouble(token);
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * SensEH Project
+ *
+ * 'RunLengthTrace' is an environmental trace held as runs of the same value,
+ *   e.g. zeros through the nights, or clipped maxima of a light sensor at noon,
+ *   at 12 bytes a run instead of 8 bytes a sample.
+ *
+ * Runs are stored as their values and the cumulative sample index at which each ends,
+ *   so a sample is found by a binary search over the runs, and read in turn at O(1) by
+ *   EnvironmentalDataProvider, which follows the run of its cursor.
+ * Consecutive runs have different values, except the last and the first when the trace wraps.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class RunLengthTrace extends EnvironmentalTrace {
+
+    public enum Encoding {
+        OFF,   // one value per sample
+        ON,    // one value per run
+        AUTO   // per run, if it holds the trace in less than half the memory
+    }
+
+    private final String traceFile;
+    private final double[] values;  // of each run
+    private final int[] ends;       // exclusive sample index, of each run
+
+
+    private RunLengthTrace(String traceFile, double[] values, int[] ends) {
+        this.traceFile = traceFile;
+        this.values = values;
+        this.ends = ends;
+    }
+
+    @Override
+    public int size() {
+        return ends[ends.length - 1];
+    }
+
+    @Override
+    public double get(int i) {
+        return values[getRun(i)];
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    @Override
+    long getSizeInBytes() {
+        return 12L * values.length;
+    }
+
+    public int getNumRuns() {
+        return values.length;
+    }
+
+    /**
+     * @return the run of the i-th sample
+     */
+    public int getRun(int i) {
+        int lo = 0, hi = ends.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ends[mid] <= i)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    public double getRunValue(int run) {
+        return values[run];
+    }
+
+    /**
+     * @return the sample index after the last of the run
+     */
+    public int getRunEnd(int run) {
+        return ends[run];
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * @return the runs of the trace; the trace itself if it is not worth it with Encoding.AUTO
+     */
+    public static EnvironmentalTrace encode(EnvironmentalTrace trace, String traceFile, Encoding encoding) {
+        if (encoding == Encoding.OFF || trace instanceof RunLengthTrace)
+            return trace;
+
+        int n = trace.size();
+        int runs = 0;
+        for (int i = 0; i < n; i++)
+            if (i == 0 || trace.get(i) != trace.get(i - 1))
+                runs++;
+        if (encoding == Encoding.AUTO && 12L * runs * 2 > 8L * n)
+            return trace;
+
+        double[] values = new double[runs];
+        int[] ends = new int[runs];
+        int r = -1;
+        for (int i = 0; i < n; i++) {
+            double value = trace.get(i);
+            if (r < 0 || value != values[r])
+                values[++r] = value;
+            ends[r] = i + 1;
+        }
+        return new RunLengthTrace(traceFile, values, ends);
+    }
+
+}
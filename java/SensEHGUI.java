@@ -10,7 +10,6 @@ import se.sics.cooja.ClassDescription;
 import se.sics.cooja.GUI;
 import se.sics.cooja.PluginType;
 import se.sics.cooja.Simulation;
-import se.sics.cooja.TimeEvent;
 import se.sics.cooja.VisPlugin;
 import se.sics.cooja.dialogs.MessageList;
 import se.sics.cooja.interfaces.Radio;
@@ -41,8 +40,10 @@ public class SensEHGUI extends VisPlugin {
 
     private long startTime; // uS
     private long lastUpdateTime; // uS
-    private ChargeUpdateEvent chargeUpdateEvent;
-    private long totalUpdates;
+    private ChargeWheel chargeWheel;  // one schedule per node, or one for the batch
+    private HarvestBatch batch;  // null when the nodes are updated one by one
+    private boolean stagger;     // phase-shifted node by node
+    private long totalIntervals;
 
     private File ehConfigFile = null;
 
@@ -95,9 +96,33 @@ public class SensEHGUI extends VisPlugin {
 
     void init(String configFilePath) {
         //setTitle("~~~ TITLE ~~~");
+        EHConfig config = EHConfig.load(configFilePath, simulation.getGUI());  // Parsed once for all nodes
+        PrefetchingTraceReader.setNumReaderThreads(config.getTracePrefetchThreads());
+        HarvestBatch.setNumThreads(config.getParallelThreads());
+        DiagnosticSink.configure(config.getDiagnosticsLevel(), config.getDiagnosticsNodes(),
+                                 config.getDiagnosticsFile(), config.getDiagnosticsQueue());
         ehNodes = new EHNode[simulation.getMotesCount()];
         for (int i = 0; i < simulation.getMotesCount(); i++)
-            ehNodes[i] = new EHNode(i, simulation, configFilePath, this);
+            ehNodes[i] = new EHNode(i, simulation, config.forNode(i), this);
+        stagger = config.isStagger();
+        batch = (config.isBatch() && !config.isAdaptive() && !config.isFastForward() && !stagger)?
+                HarvestBatch.create(ehNodes) : null;
+        if (batch != null)
+            batch.setParallelThreshold(config.getParallelThreshold());
+
+        if (!QUIET) {
+            String str = "SensEH " + LookupTableRegistry.getStatistics();
+            log.addMessage(str);
+            logger.info(str);
+            str = "SensEH " + TraceCache.getStatistics();
+            log.addMessage(str);
+            logger.info(str);
+            str = "SensEH updates " + ((batch != null)? "a batch of " + batch.size() + " nodes"
+                                            + (batch.isParallel()? ", in parallel" : "")
+                                      : "node by node" + (stagger? ", staggered" : ""));
+            log.addMessage(str);
+            logger.info(str);
+        }
         schedulePeriodicChargeUpdate(); // schedule event to update the charge of all the nodes
     }
 
@@ -105,19 +130,32 @@ public class SensEHGUI extends VisPlugin {
         simulation.invokeSimulationThread(new ChargeUpdateTaskScheduler());
     }
 
-    private double getChargeInterval() { // assume that charge update interval for ALL nodes is equal
-        return ehNodes[0].getEHSystem().getChargeInterval();
+    private static long toMicros(double seconds) {
+        return (long) (seconds * 1000000);
     }
 
     @Override
     public void closePlugin() {
-        if (chargeUpdateEvent != null) {
-            chargeUpdateEvent.remove();
+        if (chargeWheel != null) {
+            chargeWheel.stop();
 
             for (int i = 0; i < ehNodes.length; i++) {
                 ehNodes[i].getPowerConsumption().dispose();
+                ehNodes[i].dispose();
+                ehNodes[i].getEHSystem().getEnvironmentalDataProvider().stopReading();
             }
+
+            if (!QUIET && PrefetchingTraceReader.getTotalStalls() > 0)
+                logger.info("SensEH trace prefetch stalls: " + PrefetchingTraceReader.getTotalStalls());
+            if (!QUIET)
+                logger.info("SensEH charge updates: " + chargeWheel.getTotalUpdates() + " in "
+                          + chargeWheel.getTotalEvents() + " events, over " + totalIntervals + " node intervals");
         }
+
+        DiagnosticSink.close();  // Also if closed before the simulation started, configured by init()
+        if (!QUIET && DiagnosticSink.getDropped() > 0)
+            logger.info("SensEH diagnostics: " + DiagnosticSink.getRecorded() + " records, "
+                      + DiagnosticSink.getDropped() + " dropped");
     }
 
     // --------------------------------------------------------------------------
@@ -125,48 +163,87 @@ public class SensEHGUI extends VisPlugin {
 
         @Override
         public void run() {
-            totalUpdates = 1;
+            totalIntervals = 0;
             startTime = simulation.getSimulationTime();
             lastUpdateTime = 0; // It means never updated before.
             //logger.debug("periodStart: " + periodStart);
-            chargeUpdateEvent = new ChargeUpdateEvent(0);
-            chargeUpdateEvent.execute(startTime + (long)(getChargeInterval() * 1000000));
+
+            long minInterval = Long.MAX_VALUE;
+            for (EHNode node : ehNodes)
+                minInterval = Math.min(minInterval, toMicros(node.getEHSystem().getChargeInterval()));
+            chargeWheel = new ChargeWheel(simulation, minInterval / 64);  // Several buckets per interval
+
+            if (batch != null) {
+                double interval = ehNodes[0].getEHSystem().getChargeInterval();  // The same for all the nodes
+                chargeWheel.add(new BatchUpdate(interval), startTime + toMicros(interval));
+            } else {
+                for (int i = 0; i < ehNodes.length; i++) {
+                    double interval = ehNodes[i].getEHSystem().getChargeInterval();
+                    long phase = stagger? toMicros(interval * i / ehNodes.length) : 0;  // Evenly over the interval
+                    NodeUpdate update = new NodeUpdate(ehNodes[i], interval, phase);
+                    chargeWheel.add(update, startTime + ((phase > 0)? phase : toMicros(interval)));
+                }
+            }
+            chargeWheel.start();
         }
 
     }
 
     // --------------------------------------------------------------------------
-    private class ChargeUpdateEvent extends TimeEvent{
-
-        public ChargeUpdateEvent(long t) {
-            super(t, "charge update event");
+    /**
+     * SensEH does NOT continuously count harvested energies and consumed energies.
+     * It updates the charges periodically on every interval, of each node.
+     */
+    private class NodeUpdate extends ChargeWheel.Entry {
+
+        private final EHNode node;
+        private final double interval;  // s
+        private final long phase;       // us, after the start
+        private long intervals = 0;     // sample intervals, up to the next update
+        private int stride = 0;         // sample intervals spanned by the next update, none for the lead-in
+
+        NodeUpdate(EHNode node, double interval, long phase) {
+            this.node = node;
+            this.interval = interval;
+            this.phase = phase;
+            if (phase == 0) {
+                intervals = stride = 1;
+            }
         }
 
         @Override
-        public void execute(long t) {
-            // Detect early events: reschedule for later
-            //System.out.println ("t\t"+t + "\tSimTime\t"+simulation.getSimulationTime());
-            if (simulation.getSimulationTime() < t) {
-                simulation.scheduleEvent(this, startTime + (long)(totalUpdates * getChargeInterval() * 1000000));
-                return;
+        protected long update(long now) {
+            lastUpdateTime = now;
+            if (stride == 0) {
+                node.updateLeadIn(phase / 1000000.0);
+            } else {
+                node.updateCharge(stride);  // charge with harvested energy, and, discharge with consumed energy
+                totalIntervals += stride;
             }
 
-            lastUpdateTime = simulation.getSimulationTime();
-            /**
-             * SensEH does NOT continuously count harvested energies and consumed energies.
-             * It updates the charges periodically on every interval.
-             */
-            for (EHNode node : ehNodes) {
-                node.updateCharge();  // charge with harvested energy, and, discharge with consumed energy
-            }
+            stride = node.getNextStride();  // As far as the node allows
+            intervals += stride;
+            return startTime + phase + toMicros(intervals * interval);
+        }
 
-            // Now schedule the next event
-            totalUpdates++;
-            long nextEventTime = startTime + (long)(totalUpdates * getChargeInterval() * 1000000);
-            if (simulation.getSimulationTime() <  nextEventTime) {
-                simulation.scheduleEvent(this, nextEventTime);
-                return;
-            }
+    }
+
+    private class BatchUpdate extends ChargeWheel.Entry {
+
+        private final double interval;  // s
+        private long intervals = 1;
+
+        BatchUpdate(double interval) {
+            this.interval = interval;
+        }
+
+        @Override
+        protected long update(long now) {
+            lastUpdateTime = now;
+            batch.updateCharge();  // the same for all the nodes together
+            totalIntervals += batch.size();
+            intervals++;
+            return startTime + toMicros(intervals * interval);
         }
 
     }
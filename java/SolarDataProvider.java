@@ -0,0 +1,91 @@
+/**
+ * SensEH Project
+ *
+ * 'SolarDataProvider' reads the clear-sky illuminance (lux) from the position of the sun,
+ *   see SolarGeometry, instead of a trace, scaled by the attenuation of the placement of the node,
+ *   e.g. 1 outdoors, about 0.01 indoors, less in a tunnel.
+ *
+ * The geometry is shared by the nodes at the same place and interval, so a node only
+ *   scales the illuminance of each sample, and holds its sample index.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class SolarDataProvider extends EnvironmentalDataProvider {
+
+    private final SolarGeometry sky;
+    private final double attenuation;
+    private long sample = 0;           // next
+    private long totalRead = 0;
+
+
+    /**
+     * @param start s after sample 0 of the geometry, of the first getNext()
+     * @param attenuation of the light reaching the node
+     */
+    public SolarDataProvider(SolarGeometry sky, double start, double attenuation) {
+        this.sky = sky;
+        this.attenuation = attenuation;
+        seek(start);
+    }
+
+    @Override
+    public double getNext(){
+        totalRead++;
+        return attenuation * sky.getLux(sample++);
+    }
+
+    @Override
+    public double peek(){
+        return attenuation * sky.getLux(sample);
+    }
+
+    /**
+     * Nights, or no light at all, are counted at once.
+     */
+    @Override
+    public int getRunLength(int max){
+        if (max <= 1 || attenuation == 0)
+            return Math.max(max, 1);
+
+        long darkEnd = sky.getDarkEnd(sample);
+        if (darkEnd > sample)
+            return (int) Math.min(darkEnd - sample, max);
+
+        double value = sky.getLux(sample);
+        int run = 1;
+        while (run < max && sky.getLux(sample + run) == value)
+            run++;
+        return run;
+    }
+
+    @Override
+    public Run nextRun(Run holder, int max){
+        holder.length = getRunLength(max);
+        holder.value = getNext();
+        skip(holder.length - 1);
+        return holder;
+    }
+
+    @Override
+    public void skip(int samples){
+        sample += samples;
+        totalRead += samples;
+    }
+
+    @Override
+    public double valueAt(double time){
+        return attenuation * sky.getLux((long) Math.floor(time / sky.getInterval()));
+    }
+
+    @Override
+    public void seek(double time){
+        sample = Math.max((long) Math.floor(time / sky.getInterval()), 0);
+    }
+
+    @Override
+    public long getTotalRead(){
+        return totalRead;
+    }
+
+}
@@ -0,0 +1,136 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * SensEH Project
+ *
+ * 'SolarGeometry' is the clear-sky illuminance (lux) at a place, every sample interval from a time,
+ *   from the position of the sun, shared by all the nodes at the same place and interval.
+ *
+ * The position of the sun follows the low-precision formulas of the Astronomical Almanac
+ *   (within 0.01 degree over 1950-2050), giving the zenith angle z at the time,
+ *   the global horizontal irradiance follows the clear-sky model of Haurwitz,
+ *   1098 cos(z) exp(-0.057 / cos(z)) W/m^2, and the illuminance its luminous efficacy.
+ *
+ * It depends only on the time, so each sample is computed once, and kept in a small cache
+ *   for the other nodes reading it about the same time, which only scale it, see SolarDataProvider.
+ * The samples are read on the simulation thread, the cache is not synchronized.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class SolarGeometry {
+
+    private static final ConcurrentHashMap<String, SolarGeometry> instances =
+            new ConcurrentHashMap<String, SolarGeometry>();
+
+    private static final int CACHE = 256;  // samples, power of two
+
+    private final double latitude;   // rad
+    private final double longitude;  // deg, east
+    private final double epoch;      // s, UTC since 1970-01-01, of sample 0
+    private final double interval;   // s
+    private final double efficacy;   // lm/W
+
+    private final long[] cachedSamples = new long[CACHE];
+    private final double[] cachedLux = new double[CACHE];
+    private long darkStart = -1;     // samples of the last dark run looked up
+    private long darkEnd = -1;
+
+
+    private SolarGeometry(double latitude, double longitude, double epoch, double interval, double efficacy) {
+        this.latitude = Math.toRadians(latitude);
+        this.longitude = longitude;
+        this.epoch = epoch;
+        this.interval = interval;
+        this.efficacy = efficacy;
+        Arrays.fill(cachedSamples, -1);
+    }
+
+    /**
+     * @param latitude deg, north
+     * @param longitude deg, east
+     * @param epoch s, UTC since 1970-01-01, of sample 0
+     * @param interval s, between two samples
+     * @param efficacy lm/W, of the sunlight
+     */
+    public static SolarGeometry getInstance(double latitude, double longitude, double epoch,
+                                            double interval, double efficacy) {
+        String key = latitude + "|" + longitude + "|" + epoch + "|" + interval + "|" + efficacy;
+        SolarGeometry sky = instances.get(key);
+        if (sky == null) {
+            SolarGeometry created = new SolarGeometry(latitude, longitude, epoch, interval, efficacy);
+            sky = instances.putIfAbsent(key, created);
+            if (sky == null)
+                sky = created;
+        }
+        return sky;
+    }
+
+    public double getInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the clear-sky illuminance (lux) of the sample, 0 with the sun below the horizon
+     */
+    public double getLux(long sample) {
+        int i = (int) sample & (CACHE - 1);
+        if (cachedSamples[i] != sample) {
+            cachedLux[i] = computeLux(sample);
+            cachedSamples[i] = sample;
+        }
+        return cachedLux[i];
+    }
+
+    /**
+     * @return the first sample from the given one with the sun above the horizon,
+     *   the given one itself by day; it is looked up once a night for all the nodes
+     */
+    public long getDarkEnd(long sample) {
+        if (sample >= darkStart && sample < darkEnd)
+            return darkEnd;
+        if (getLux(sample) > 0)
+            return sample;
+        long end = sample + 1;
+        long limit = sample + (long) Math.ceil(2 * 86400 / interval);  // Polar nights are looked up by parts
+        while (end < limit && computeLux(end) == 0)
+            end++;
+        darkStart = sample;
+        darkEnd = end;
+        return end;
+    }
+
+    // --------------------------------------------------------------------------
+    private double computeLux(long sample) {
+        double cosZenith = getCosZenith(epoch + sample * interval);
+        if (cosZenith <= 0)
+            return 0;
+        return 1098 * cosZenith * Math.exp(-0.057 / cosZenith) * efficacy;
+    }
+
+    /**
+     * @param time s, UTC since 1970-01-01
+     */
+    double getCosZenith(double time) {
+        double n = time / 86400 + 2440587.5 - 2451545.0;  // days since J2000.0
+
+        double meanLongitude = 280.460 + 0.9856474 * n;                   // deg
+        double meanAnomaly = Math.toRadians(357.528 + 0.9856003 * n);
+        double eclipticLongitude = Math.toRadians(meanLongitude
+                + 1.915 * Math.sin(meanAnomaly) + 0.020 * Math.sin(2 * meanAnomaly));
+        double obliquity = Math.toRadians(23.439 - 0.0000004 * n);
+
+        double rightAscension = Math.atan2(Math.cos(obliquity) * Math.sin(eclipticLongitude),
+                                           Math.cos(eclipticLongitude));
+        double declination = Math.asin(Math.sin(obliquity) * Math.sin(eclipticLongitude));
+
+        double siderealTime = 18.697374558 + 24.06570982441908 * n;       // h, at Greenwich
+        double hourAngle = Math.toRadians((siderealTime * 15 + longitude) % 360) - rightAscension;
+
+        return Math.sin(latitude) * Math.sin(declination)
+             + Math.cos(latitude) * Math.cos(declination) * Math.cos(hourAngle);
+    }
+
+}
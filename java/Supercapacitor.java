@@ -0,0 +1,177 @@
+/**
+ * SensEH Project
+ *
+ * 'Supercapacitor' is an energy storage whose voltage follows V = sqrt(2E/C),
+ *   and which self-discharges through a leakage resistance R, exponentially:
+ *   the leakage power V^2/R = E/tau, where tau = RC/2.
+ *
+ * With a constant net power P into it over an interval, dE/dt = P - E/tau, so
+ *   E(t) = P tau + (E(0) - P tau) e^(-t/tau),
+ *   which is integrated at once, in closed form, whatever the length of the interval,
+ *   and with the current of the leakage model, if any, piece by piece, see EnergyStorage.integrateLeaking().
+ * The energy then moves monotonically towards P tau, so it is clamped between 0 and
+ *   the energy at the rated voltage once it reaches either, and the time at which it
+ *   reaches a given energy, e.g. that of the minimum operating voltage, is exact too.
+ *
+ * Several capacitors are in series, sharing the energy equally, as the batteries do.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class Supercapacitor extends EnergyStorage {
+
+    private String name;
+    private int numCapacitors;
+
+    private double CAPACITANCE;            // F
+    private double MAX_VOLTAGE;            // V, rated
+    private double MIN_OPERATING_VOLTAGE;  // V
+    private double RESUME_VOLTAGE;         // V
+    private double tau;                    // s, of the energy, infinite without leakage
+
+    private double energy;     // mJ, of each capacitor
+    private double maxEnergy;  // mJ
+    private double depletionEnergy;
+    private double resumeEnergy;
+
+
+    /**
+     * @param leakageResistance in Ohm, infinite for no leakage
+     * @param initialVoltage in V
+     */
+    public Supercapacitor(String name, double capacitance, double maxVoltage, double minVoltage,
+                          double leakageResistance, double initialVoltage) {
+        this.name = name;
+        numCapacitors = 1;
+        CAPACITANCE = capacitance;
+        MAX_VOLTAGE = maxVoltage;
+        MIN_OPERATING_VOLTAGE = minVoltage;
+        tau = leakageResistance * capacitance / 2;
+
+        maxEnergy = getEnergy(MAX_VOLTAGE);
+        energy = Math.min(getEnergy(initialVoltage), maxEnergy);
+        depletionEnergy = getEnergy(MIN_OPERATING_VOLTAGE);
+        setResumeVoltage(MIN_OPERATING_VOLTAGE);
+    }
+
+    public void setNumCapacitors(int numCapacitors){
+        this.numCapacitors = numCapacitors;
+    }
+
+    /**
+     * Sets the voltage above which a depleted capacitor is refilled, for a hysteresis.
+     */
+    public void setResumeVoltage(double resumeVoltage){
+        RESUME_VOLTAGE = Math.max(resumeVoltage, MIN_OPERATING_VOLTAGE);
+        resumeEnergy = getEnergy(RESUME_VOLTAGE);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getNumStorages(){
+        return numCapacitors;
+    }
+
+    @Override
+    double getVoltage() {
+        return getVoltage(energy);
+    }
+
+    @Override
+    double getVoltage(double energy_mj) {
+        return Math.sqrt(2 * energy_mj / 1000 / CAPACITANCE);
+    }
+
+    private double getEnergy(double voltage) {  // mJ
+        return CAPACITANCE * voltage * voltage / 2 * 1000;
+    }
+
+    @Override
+    double getEnergyAt(double voltage) {
+        return getEnergy(voltage);
+    }
+
+    @Override
+    double getChargeVoltage(double energy_mj) {
+        return getVoltage(energy_mj);
+    }
+
+    @Override
+    double getMaxEnergy() {
+        return maxEnergy;
+    }
+
+    @Override
+    public double getEnergy() { // return in mJ
+        return energy;
+    }
+
+    // --------------------------------------------------------------------------
+    @Override
+    void charge(double energy_mj) {
+        energy = Math.min(energy + energy_mj / numCapacitors, maxEnergy);
+    }
+
+    @Override
+    void discharge(double energy_mj) {
+        energy = Math.max(energy - energy_mj / numCapacitors, 0);
+    }
+
+    /**
+     * Integrates the charging, the load and the leakage together over the interval.
+     */
+    @Override
+    void update(double charged_mj, double discharged_mj, double interval) {
+        double power = (charged_mj - discharged_mj) / numCapacitors / interval;  // mW, of each capacitor
+        energy = integrateLeaking(energy, power, getLeakageRate(), interval);
+    }
+
+    /**
+     * Integrates over the whole run at once, the same at constant powers.
+     */
+    @Override
+    void updateRun(double charged_mj, double discharged_mj, double interval, int intervals) {
+        update(charged_mj * intervals, discharged_mj * intervals, interval * intervals);
+    }
+
+    // Of the leakage resistance, and of the leakage model, if any; its current, see integrateLeaking()
+    private double getLeakageRate() {
+        double rate = 1 / tau;  // 0 without resistance
+        if (leakage != null)
+            rate += leakage.getRate();
+        return rate;
+    }
+
+    @Override
+    boolean isFull() {
+        return energy >= maxEnergy;
+    }
+
+    @Override
+    boolean isDepleted(boolean wasDepleted) {
+        return energy <= (wasDepleted? resumeEnergy : depletionEnergy);
+    }
+
+    @Override
+    double getTimeToCrossing(boolean depleted, double charged_mj, double discharged_mj, double interval) {
+        double power = (charged_mj - discharged_mj) / numCapacitors / interval;
+        return getTimeToReachLeaking(energy, depleted? resumeEnergy : depletionEnergy,
+                                     power, getLeakageRate());
+    }
+
+    // --------------------------------------------------------------------------
+    // Test: a 1 F capacitor at 5 V, leaking through 100 kOhm, with a 1 mW load
+    public static void main(String[] args) {
+        Supercapacitor cap = new Supercapacitor("test", 1, 5, 2, 100000, 5);
+        double power = -1;  // mW
+        System.out.println("Depleted in " + cap.getTimeToCrossing(false, 0, 1, 1) + " s");
+        for (int hour = 1; hour <= 8; hour++) {
+            cap.update(0, -power * 3600, 3600);
+            System.out.println(hour + " h: " + cap.getVoltage() + " V, " + cap.getEnergy() + " mJ");
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+/**
+ * SensEH Project
+ *
+ * 'SyntheticDataProvider' generates light values (lux) instead of reading a trace,
+ *   so any number of nodes needs no trace file, and each holds O(1) state.
+ *
+ * The value of sample k, at k x interval seconds into the day of the trace, is
+ *   the diurnal envelope, peak x sin(pi (h - sunrise) / (sunset - sunrise)) by day, 0 by night,
+ *   times the cloud factor while cloudy, times 1 + jitter x N(0, 1), of the node.
+ * Cloud cover is a two-state Markov chain, clear or cloudy, stepping once per sample with
+ *   the probabilities of leaving a state after its mean duration, the same for all the nodes.
+ *
+ * Random numbers are hashes of the seed, the node (for the jitter only) and the sample,
+ *   so the values are fully deterministic, and looking ahead needs no copy of a generator.
+ * Only the cloud state is carried from a sample to the next, so skipping over samples,
+ *   or seeking backwards, steps the chain through them.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class SyntheticDataProvider extends EnvironmentalDataProvider {
+
+    private static final long GOLDEN = 0x9E3779B97F4A7C15L;
+
+    private final double interval;     // s, between two samples
+    private final double peakLux;
+    private final double sunrise;      // h
+    private final double sunset;       // h
+    private final double clearToCloudy;  // per sample
+    private final double cloudyToClear;  // per sample
+    private final double initialCloudy;  // probability
+    private final double cloudFactor;
+    private final double jitter;       // relative standard deviation
+    private final long cloudKey;
+    private final long jitterKey;
+
+    private long sample = 0;           // next
+    private boolean cloudy;            // of the last sample
+    private long totalRead = 0;
+
+
+    /**
+     * @param interval s, the time passing between two getNext(), i.e. the charge interval
+     * @param start s into the trace, of the first getNext()
+     * @param sunrise hour of the day
+     * @param sunset hour of the day
+     * @param clearDuration s, mean of a clear stretch
+     * @param cloudyDuration s, mean of a cloudy stretch
+     * @param cloudFactor of the light getting through while cloudy
+     * @param jitter relative standard deviation of the light at the node
+     */
+    public SyntheticDataProvider(int nodeID, long seed, double interval, double start,
+                                 double peakLux, double sunrise, double sunset,
+                                 double clearDuration, double cloudyDuration, double cloudFactor, double jitter) {
+        this.interval = interval;
+        this.peakLux = peakLux;
+        this.sunrise = sunrise;
+        this.sunset = sunset;
+        clearToCloudy = 1 - Math.exp(-interval / clearDuration);
+        cloudyToClear = 1 - Math.exp(-interval / cloudyDuration);
+        initialCloudy = cloudyDuration / (clearDuration + cloudyDuration);  // Stationary
+        this.cloudFactor = cloudFactor;
+        this.jitter = jitter;
+        cloudKey = mix(seed);
+        jitterKey = mix(cloudKey ^ mix(nodeID + 1));
+
+        seek(start);
+        totalRead = 0;
+    }
+
+    // --------------------------------------------------------------------------
+    // The finalizer of SplitMix64
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // Uniform in [0, 1), of the key and the sample
+    private static double uniform(long key, long k) {
+        return (mix(key + k * GOLDEN) >>> 11) * 0x1.0p-53;
+    }
+
+    private boolean stepCloud(boolean cloudy, long k) {
+        double u = uniform(cloudKey, k);
+        return cloudy? (u >= cloudyToClear) : (u < clearToCloudy);
+    }
+
+    private double getEnvelope(long k) {
+        double hour = (k * interval / 3600) % 24;
+        if (hour <= sunrise || hour >= sunset)
+            return 0;
+        return peakLux * Math.sin(Math.PI * (hour - sunrise) / (sunset - sunrise));
+    }
+
+    private double getValue(long k, boolean cloudy) {
+        double value = getEnvelope(k);
+        if (value == 0)
+            return 0;
+        if (cloudy)
+            value *= cloudFactor;
+        if (jitter > 0) {  // Irwin-Hall: the sum of 4 uniforms, scaled to a unit variance
+            double n = 0;
+            for (int i = 0; i < 4; i++)
+                n += uniform(jitterKey + i, k);
+            value *= Math.max(1 + jitter * (n - 2) * Math.sqrt(3), 0);
+        }
+        return value;
+    }
+
+    // --------------------------------------------------------------------------
+    @Override
+    public double getNext(){
+        cloudy = stepCloud(cloudy, sample);
+        double value = getValue(sample++, cloudy);
+        totalRead++;
+        return value;
+    }
+
+    @Override
+    public double peek(){
+        return getValue(sample, stepCloud(cloudy, sample));
+    }
+
+    /**
+     * Nights, or no light at all, are counted at once.
+     */
+    @Override
+    public int getRunLength(int max){
+        if (max <= 1)
+            return 1;
+        if (peakLux == 0)
+            return max;
+
+        int run = 1;
+        if (getEnvelope(sample) == 0) {  // Up to the sunrise
+            double hour = (sample * interval / 3600) % 24;
+            double dark = ((hour <= sunrise)? sunrise - hour : 24 - hour + sunrise) * 3600;  // s
+            long n = Math.max((long) (dark / interval), 1);
+            while (n > 1 && getEnvelope(sample + n - 1) > 0)  // Rounding
+                n--;
+            while (n < max && getEnvelope(sample + n) == 0)
+                n++;
+            return (int) Math.min(n, max);
+        }
+
+        boolean c = stepCloud(cloudy, sample);
+        double value = getValue(sample, c);
+        while (run < max) {
+            c = stepCloud(c, sample + run);
+            if (getValue(sample + run, c) != value)
+                break;
+            run++;
+        }
+        return run;
+    }
+
+    @Override
+    public Run nextRun(Run holder, int max){
+        holder.length = getRunLength(max);
+        holder.value = getNext();
+        skip(holder.length - 1);
+        return holder;
+    }
+
+    @Override
+    public void skip(int samples){
+        for (int i = 0; i < samples; i++) {
+            cloudy = stepCloud(cloudy, sample);
+            sample++;
+        }
+        totalRead += samples;
+    }
+
+    @Override
+    public double valueAt(double time){
+        long k = (long) Math.floor(time / interval);
+        long s = sample;
+        boolean c = cloudy;
+        if (k < s) {
+            s = 0;
+            c = uniform(cloudKey, -1) < initialCloudy;
+        }
+        for (; s <= k; s++)
+            c = stepCloud(c, s);
+        return getValue(k, c);
+    }
+
+    @Override
+    public void seek(double time){
+        long k = (long) Math.floor(time / interval);
+        if (k < sample || sample == 0) {
+            sample = 0;
+            cloudy = uniform(cloudKey, -1) < initialCloudy;
+        }
+        for (; sample < k; sample++)
+            cloudy = stepCloud(cloudy, sample);
+    }
+
+    @Override
+    public long getTotalRead(){
+        return totalRead;
+    }
+
+}
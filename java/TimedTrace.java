@@ -0,0 +1,250 @@
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TimeZone;
+
+
+/**
+ * SensEH Project
+ *
+ * 'TimedTrace' is an environmental trace with the time of every sample,
+ *   e.g. the "date","time",value lines of the bkk_phathumwan_jan2014 traces.
+ *
+ * Samples are indexed by their time, in seconds after the first sample,
+ *   so a value at any time is found by a binary search, and the trace may have
+ *   gaps or be sampled irregularly, or at another rate than the charge interval.
+ * Beyond the last sample the trace starts again from the first one,
+ *   one typical sample interval later.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class TimedTrace extends EnvironmentalTrace {
+
+    public enum Interpolation {
+        STEP,   // the value of the last sample at or before the time
+        LINEAR  // the line between the samples around the time
+    }
+
+    private final String traceFile;
+    private final double[] times;   // s, sorted, times[0] == 0
+    private final double[] values;
+    private final double period;    // after which the trace repeats
+    private final LookupAxis axis;
+
+
+    public TimedTrace(String traceFile, double[] times, double[] values) {
+        this.traceFile = traceFile;
+        this.times = times;
+        this.values = values;
+
+        // A typical sample interval, the median one, closes the loop back to the first sample
+        int n = times.length;
+        double typical = 1;
+        if (n > 1) {
+            double[] intervals = new double[n - 1];
+            for (int i = 0; i < n - 1; i++)
+                intervals[i] = times[i + 1] - times[i];
+            Arrays.sort(intervals);
+            typical = intervals[(n - 1) / 2];
+        }
+        period = times[n - 1] + ((typical > 0)? typical : 1);
+        axis = new LookupAxis(times);
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+
+    @Override
+    public double get(int i) {
+        return values[i];
+    }
+
+    public double getTime(int i) {
+        return times[i];
+    }
+
+    public double getPeriod() {
+        return period;
+    }
+
+    public String getTraceFile() {
+        return traceFile;
+    }
+
+    @Override
+    long getSizeInBytes() {
+        return 8L * (times.length + values.length);
+    }
+
+    /**
+     * @param time s after the first sample, wrapped around the period of the trace
+     * @param maxGap s, samples further apart than this are not interpolated, held instead
+     */
+    public double valueAt(double time, Interpolation interpolation, double maxGap) {
+        return valueAt(time, interpolation, maxGap, null, 0);
+    }
+
+    /**
+     * @param hints hints[slot] is the sample before the time of the previous lookup of the caller,
+     *   updated; null for none, see LookupAxis
+     */
+    public double valueAt(double time, Interpolation interpolation, double maxGap, int[] hints, int slot) {
+        time = time % period;
+        if (time < 0)
+            time += period;
+
+        int n = times.length;
+        int i = axis.ceilingIndex(time, hints, slot);  // times[i-1] < time <= times[i]
+        if (i < n && times[i] == time)
+            return values[i];
+        if (i == 0)
+            return values[0];
+
+        int prev = i - 1;
+        double nextTime, nextValue;
+        if (i < n) {
+            nextTime = times[i];
+            nextValue = values[i];
+        } else {  // between the last sample and the first one of the next period
+            nextTime = period;
+            nextValue = values[0];
+        }
+
+        double gap = nextTime - times[prev];
+        if (interpolation == Interpolation.STEP || gap > maxGap || gap <= 0)
+            return values[prev];
+        return values[prev] + (nextValue - values[prev]) * (time - times[prev]) / gap;
+    }
+
+    // --------------------------------------------------------------------------
+    /**
+     * Reads the timestamped text layout, e.g. "1/1/2014","5:10",0 .
+     * @param dateTimeFormat of "<date column> <time column>" for SimpleDateFormat, in UTC;
+     *   the time column may be 0 when the date column carries both
+     * @param columns of the date, the time and the value, from 1
+     */
+    public static TimedTrace parse(String traceFile, String delimiter, String dateTimeFormat,
+                                   int dateColumn, int timeColumn, int valueColumn) {
+        BufferedReader traceRdr = null;
+        try {
+            traceRdr = new BufferedReader(new FileReader(traceFile));
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+            System.err.println("Enviornmental data trace file " + traceFile +  " not found ... Exiting.... ");
+            System.exit(-1);
+        }
+
+        SimpleDateFormat parser = new SimpleDateFormat(dateTimeFormat);
+        parser.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        long[] timestamps = new long[1024];
+        double[] values = new double[1024];
+        int n = 0;
+        String line = null;
+        try {
+            while ((line = traceRdr.readLine()) != null) {
+                if (line.trim().length() == 0)
+                    continue;
+                String[] tokens = line.split(delimiter);
+                String dateTime = unquote(tokens[dateColumn - 1]);
+                if (timeColumn > 0)
+                    dateTime += " " + unquote(tokens[timeColumn - 1]);
+
+                if (n == values.length) {
+                    timestamps = Arrays.copyOf(timestamps, n * 2);
+                    values = Arrays.copyOf(values, n * 2);
+                }
+                timestamps[n] = parser.parse(dateTime).getTime();
+                values[n] = Double.parseDouble(unquote(tokens[valueColumn - 1]));
+                n++;
+            }
+            traceRdr.close();
+        } catch (ParseException e) {
+            System.err.println ("Could not parse the time of '" + line + "' in " + traceFile + "... Exiting...");
+            System.exit(-1);
+        } catch (NumberFormatException e) {
+            System.err.println ("Could not parse environmental value '" + line + "' in " + traceFile + "... Exiting...");
+            System.exit(-1);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println ("Missing columns in '" + line + "' of " + traceFile + "... Exiting...");
+            System.exit(-1);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println ("Could not read from trace file "+  traceFile +" ... Exiting...");
+            System.exit(-1);
+        }
+
+        if (n == 0) {
+            System.err.println ("Enviornmental data trace file " + traceFile + " is empty ... Exiting...");
+            System.exit(-1);
+        }
+
+        double[] times = new double[n];
+        for (int i = 0; i < n; i++)
+            times[i] = timestamps[i] / 1000.0;
+        return sorted(traceFile, times, Arrays.copyOf(values, n));
+    }
+
+    /**
+     * Reads a binary trace, see BinaryTrace, with its "time" column.
+     */
+    public static TimedTrace fromBinary(String traceFile, String valueColumn) {
+        MappedTrace time = BinaryTrace.map(traceFile, "time");
+        MappedTrace value = BinaryTrace.map(traceFile, valueColumn);
+        double[] times = new double[time.size()];
+        double[] values = new double[value.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = time.get(i);
+            values[i] = value.get(i);
+        }
+        return sorted(traceFile, times, values);
+    }
+
+    // Sorts the samples by time, if needed, and makes the times relative to the first sample
+    private static TimedTrace sorted(String traceFile, final double[] times, double[] values) {
+        int n = times.length;
+        boolean isSorted = true;
+        for (int i = 1; isSorted && i < n; i++)
+            isSorted = times[i] >= times[i - 1];
+
+        if (!isSorted) {
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++)
+                order[i] = i;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return Double.compare(times[a], times[b]);
+                }
+            });
+            double[] sortedTimes = new double[n];
+            double[] sortedValues = new double[n];
+            for (int i = 0; i < n; i++) {
+                sortedTimes[i] = times[order[i]];
+                sortedValues[i] = values[order[i]];
+            }
+            return sorted(traceFile, sortedTimes, sortedValues);
+        }
+
+        double start = times[0];
+        for (int i = 0; i < n; i++)
+            times[i] -= start;
+        return new TimedTrace(traceFile, times, values);
+    }
+
+    private static String unquote(String token) {
+        token = token.trim();
+        if (token.length() >= 2 && token.charAt(0) == '"' && token.charAt(token.length() - 1) == '"')
+            return token.substring(1, token.length() - 1);
+        return token;
+    }
+
+}
@@ -0,0 +1,231 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * SensEH Project
+ *
+ * 'TraceCache' loads every distinct environmental trace once for the process,
+ *   so that nodes reading the same trace share one read-only array
+ *   and hold only their own cursor into it.
+ *
+ * Traces are looked up by the canonical path of their file, which also resolves symbolic links,
+ *   and then by a digest of their content, which catches plain copies of the same trace.
+ * A file is loaded again only when its modification time has changed,
+ *   from the same bytes as its digest, and its earlier content is dropped once no path refers to it.
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class TraceCache {
+
+    private static class Entry {
+        final long lastModified;
+        final EnvironmentalTrace trace;
+        final String contentKey;  // in byContent, null if not there
+
+        Entry(long lastModified, EnvironmentalTrace trace) {
+            this(lastModified, trace, null);
+        }
+
+        Entry(long lastModified, EnvironmentalTrace trace, String contentKey) {
+            this.lastModified = lastModified;
+            this.trace = trace;
+            this.contentKey = contentKey;
+        }
+    }
+
+    // Keys include the format, the same file may be read at different columns
+    private static final ConcurrentHashMap<String, Entry> byPath = new ConcurrentHashMap<String, Entry>();
+    private static final ConcurrentHashMap<String, EnvironmentalTrace> byContent =
+            new ConcurrentHashMap<String, EnvironmentalTrace>();
+
+    private static final AtomicLong hits   = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+
+    private TraceCache() {
+    }
+
+    private static String canonicalPath(String file) {
+        try {
+            return new File(file).getCanonicalPath();
+        } catch (IOException e) {
+            return new File(file).getAbsolutePath();
+        }
+    }
+
+    public static EnvironmentalTrace getTrace(String traceFile, String delimiter, int tokenNo) {
+        return getTrace(traceFile, delimiter, tokenNo, RunLengthTrace.Encoding.OFF);
+    }
+
+    /**
+     * @param encoding of the trace in memory, see RunLengthTrace
+     */
+    public static EnvironmentalTrace getTrace(String traceFile, String delimiter, int tokenNo,
+                                              RunLengthTrace.Encoding encoding) {
+        String path = canonicalPath(traceFile);
+        String format = "|" + delimiter + "|" + tokenNo + "|" + encoding;
+        long lastModified = new File(path).lastModified();
+
+        Entry entry = byPath.get(path + format);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.trace;
+        }
+
+        // The file is read once, for both its digest and its parsing
+        byte[] content = read(path);
+        String digest = (content != null)? digest(content) : null;
+        String contentKey = (digest != null)? digest + format : null;
+        EnvironmentalTrace trace = (contentKey != null)? byContent.get(contentKey) : null;
+        if (trace != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            ArrayTrace parsed = (content != null)?
+                    ArrayTrace.parse(path, new BufferedReader(new InputStreamReader(
+                            new ByteArrayInputStream(content))), delimiter, tokenNo) :
+                    ArrayTrace.parse(path, delimiter, tokenNo);  // Let the parser report the file
+            trace = RunLengthTrace.encode(parsed, path, encoding);
+            if (contentKey != null)
+                byContent.put(contentKey, trace);
+        }
+        Entry superseded = byPath.put(path + format, new Entry(lastModified, trace, contentKey));
+        if (superseded != null)
+            evict(superseded.contentKey);
+        return trace;
+    }
+
+    // Drops a content no path refers to any more, e.g. an earlier version of an edited file
+    private static void evict(String contentKey) {
+        if (contentKey == null)
+            return;
+        for (Entry entry : byPath.values())
+            if (contentKey.equals(entry.contentKey))
+                return;
+        byContent.remove(contentKey);
+    }
+
+    /**
+     * Returns the column of a binary trace file, see BinaryTrace.
+     * Mapping is cheap, so binary traces are shared by path only.
+     */
+    public static EnvironmentalTrace getMappedTrace(String traceFile, String columnName) {
+        String path = canonicalPath(traceFile);
+        String key = path + "|" + columnName;
+        long lastModified = new File(path).lastModified();
+
+        Entry entry = byPath.get(key);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return entry.trace;
+        }
+
+        misses.incrementAndGet();
+        EnvironmentalTrace trace = BinaryTrace.map(path, columnName);
+        byPath.put(key, new Entry(lastModified, trace));
+        return trace;
+    }
+
+    /**
+     * Returns a timed trace, see TimedTrace, of a text or a binary trace file.
+     * Timed traces are shared by path only.
+     * @param delimiter null for a binary trace file
+     */
+    public static TimedTrace getTimedTrace(String traceFile, String delimiter, String dateTimeFormat,
+                                           int dateColumn, int timeColumn, int valueColumn, String valueColumnName) {
+        String path = canonicalPath(traceFile);
+        String key = path + "|" + delimiter + "|" + dateTimeFormat + "|" + dateColumn + "|" + timeColumn
+                   + "|" + valueColumn + "|" + valueColumnName + "|timed";
+        long lastModified = new File(path).lastModified();
+
+        Entry entry = byPath.get(key);
+        if (entry != null && entry.lastModified == lastModified) {
+            hits.incrementAndGet();
+            return (TimedTrace) entry.trace;
+        }
+
+        misses.incrementAndGet();
+        TimedTrace trace = (delimiter == null)?
+                TimedTrace.fromBinary(path, valueColumnName) :
+                TimedTrace.parse(path, delimiter, dateTimeFormat, dateColumn, timeColumn, valueColumn);
+        byPath.put(key, new Entry(lastModified, trace));
+        return trace;
+    }
+
+    // The content of the file, or null if it could not be read
+    private static byte[] read(String path) {
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(path);
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(new File(path).length(), Integer.MAX_VALUE - 8));
+            byte[] buffer = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+                out.write(buffer, 0, n);
+            return out.toByteArray();
+
+        } catch (IOException e) {
+            return null;  // Let the parser report the file
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    // Hex digest of the content, or null if it could not be computed
+    private static String digest(byte[] content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            StringBuilder sb = new StringBuilder();
+            for (byte b : md.digest(content))
+                sb.append(String.format("%02x", b));
+            return sb.toString();
+
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    public static long getHits() {
+        return hits.get();
+    }
+
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    public static long getBytesHeld() {
+        long bytes = 0;
+        for (EnvironmentalTrace trace : byContent.values())
+            bytes += trace.getSizeInBytes();
+        return bytes;
+    }
+
+    public static String getStatistics() {
+        return String.format("traces: %d held (%d bytes), %d hits, %d misses",
+                byContent.size(), getBytesHeld(), getHits(), getMisses());
+    }
+
+    public static void clear() {
+        byPath.clear();
+        byContent.clear();
+        hits.set(0);
+        misses.set(0);
+    }
+
+}
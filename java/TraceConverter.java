@@ -0,0 +1,195 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+
+/**
+ * SensEH Project
+ *
+ * 'TraceConverter' converts the text traces under config/EnergySources
+ *   into the binary columnar format of BinaryTrace, off-line.
+ *
+ * Two text layouts are recognized:
+ *   one value per line, e.g. the test and tunnel traces,
+ *   and "date","time",value lines, e.g. the bkk_phathumwan_jan2014 traces.
+ * The values go to the column "value", the timestamps, if any, to the column "time"
+ *   in seconds after the first sample.
+ *
+ * Usage: java TraceConverter [options] <input.txt> [<output.bin>]
+ *   -interval <s>       sample interval, inferred from the timestamps if not given (1)
+ *   -delimiter <regex>  column delimiter (,)
+ *   -column <n>         column of the value, from 1 (the last one)
+ *   -unit <unit>        unit of the value (counts)
+ *   -datetime <format>  SimpleDateFormat of "date time" (M/d/yyyy H:mm), in UTC
+ *   -float32            store the values as float32 instead of float64
+ *
+ * @author ipas
+ * @since 2015-05-01
+ */
+public class TraceConverter {
+
+    private double interval = Double.NaN;
+    private String delimiter = ",";
+    private int column = 0;  // 0 for the last one
+    private String unit = "counts";
+    private String dateTimeFormat = "M/d/yyyy H:mm";
+    private int bytesPerValue = 8;
+
+    private double[] values = new double[1024];
+    private long[] timestamps = null;  // ms, only for the timestamped layout
+    private int rows = 0;
+
+
+    public void convert(File input, File output) throws IOException {
+        read(input);
+
+        long start = (timestamps != null)? timestamps[0] : BinaryTrace.NO_TIMESTAMP;
+        if (Double.isNaN(interval))
+            interval = (timestamps != null && rows > 1)? (timestamps[1] - timestamps[0]) / 1000.0 : 1;
+
+        BinaryTrace.Header header;
+        double[][] data;
+        if (timestamps != null) {
+            double[] time = new double[rows];
+            for (int i = 0; i < rows; i++)
+                time[i] = (timestamps[i] - start) / 1000.0;
+            header = new BinaryTrace.Header(interval, start, rows, new BinaryTrace.Column[] {
+                    new BinaryTrace.Column("time", "s", 8),
+                    new BinaryTrace.Column("value", unit, bytesPerValue)});
+            data = new double[][] {time, trim(values)};
+        } else {
+            header = new BinaryTrace.Header(interval, start, rows, new BinaryTrace.Column[] {
+                    new BinaryTrace.Column("value", unit, bytesPerValue)});
+            data = new double[][] {trim(values)};
+        }
+        BinaryTrace.write(output, header, data);
+    }
+
+    private void read(File input) throws IOException {
+        SimpleDateFormat parser = new SimpleDateFormat(dateTimeFormat);
+        parser.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        BufferedReader reader = new BufferedReader(new FileReader(input));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNo++;
+                if (line.trim().length() == 0)
+                    continue;
+                String[] tokens = line.split(delimiter);
+                for (int t = 0; t < tokens.length; t++)
+                    tokens[t] = unquote(tokens[t]);
+
+                int c = (column > 0)? column - 1 : tokens.length - 1;
+                if (c >= tokens.length)
+                    throw new IOException(input + ":" + lineNo + ": no column " + (c+1));
+                double value;
+                try {
+                    value = Double.parseDouble(tokens[c]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(input + ":" + lineNo + ": could not parse '" + tokens[c] + "'");
+                }
+
+                if (rows == values.length)
+                    grow();
+                values[rows] = value;
+
+                if (tokens.length >= 3) {  // "date","time",value
+                    if (timestamps == null) {
+                        if (rows > 0)
+                            throw new IOException(input + ":" + lineNo + ": timestamps start in the middle");
+                        timestamps = new long[values.length];
+                    }
+                    try {
+                        timestamps[rows] = parser.parse(tokens[0] + " " + tokens[1]).getTime();
+                    } catch (ParseException e) {
+                        throw new IOException(input + ":" + lineNo + ": could not parse the date and time");
+                    }
+                } else if (timestamps != null) {
+                    throw new IOException(input + ":" + lineNo + ": timestamp missing");
+                }
+                rows++;
+            }
+        } finally {
+            reader.close();
+        }
+        if (rows == 0)
+            throw new IOException(input + " is empty");
+    }
+
+    private void grow() {
+        double[] grownValues = new double[values.length * 2];
+        System.arraycopy(values, 0, grownValues, 0, rows);
+        values = grownValues;
+        if (timestamps != null) {
+            long[] grownTimestamps = new long[grownValues.length];
+            System.arraycopy(timestamps, 0, grownTimestamps, 0, rows);
+            timestamps = grownTimestamps;
+        }
+    }
+
+    private double[] trim(double[] array) {
+        double[] trimmed = new double[rows];
+        System.arraycopy(array, 0, trimmed, 0, rows);
+        return trimmed;
+    }
+
+    private static String unquote(String token) {
+        token = token.trim();
+        if (token.length() >= 2 && token.charAt(0) == '"' && token.charAt(token.length() - 1) == '"')
+            return token.substring(1, token.length() - 1);
+        return token;
+    }
+
+    // --------------------------------------------------------------------------
+    public static void main(String[] args) {
+        TraceConverter converter = new TraceConverter();
+        String input = null, output = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-interval") && i+1 < args.length) {
+                converter.interval = Double.parseDouble(args[++i]);
+            } else if (args[i].equals("-delimiter") && i+1 < args.length) {
+                converter.delimiter = args[++i];
+            } else if (args[i].equals("-column") && i+1 < args.length) {
+                converter.column = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-unit") && i+1 < args.length) {
+                converter.unit = args[++i];
+            } else if (args[i].equals("-datetime") && i+1 < args.length) {
+                converter.dateTimeFormat = args[++i];
+            } else if (args[i].equals("-float32")) {
+                converter.bytesPerValue = 4;
+            } else if (input == null) {
+                input = args[i];
+            } else if (output == null) {
+                output = args[i];
+            } else {
+                input = null;
+                break;
+            }
+        }
+
+        if (input == null) {
+            System.err.println("Usage: java TraceConverter [-interval s] [-delimiter regex] [-column n] [-unit unit]"
+                             + " [-datetime format] [-float32] <input.txt> [<output" + BinaryTrace.EXTENSION + ">]");
+            System.exit(-1);
+        }
+        if (output == null)
+            output = input.replaceFirst("\\.[^./\\\\]*$", "") + BinaryTrace.EXTENSION;
+
+        try {
+            converter.convert(new File(input), new File(output));
+        } catch (IOException e) {
+            System.err.println("Could not convert " + input + ": " + e.getMessage());
+            System.exit(-1);
+        }
+        System.out.println(input + " -> " + output + ": " + converter.rows + " samples every "
+                         + converter.interval + " s");
+    }
+
+}